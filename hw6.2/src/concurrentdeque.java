@@ -0,0 +1,662 @@
+import tester.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.*;
+
+// represents one link of an immutable list, used by DequeSnapshot
+// the empty list is null
+class Link<T> {
+  final T item;
+  final Link<T> rest;
+
+  Link(T item, Link<T> rest) {
+    this.item = item;
+    this.rest = rest;
+  }
+}
+
+// represents the contents of a ConcurrentDeque at one moment, which never changes
+// the items are split into two immutable lists: front holds the first items from the head
+// on, and back holds the last items from the tail back, so adding or removing at either
+// end only makes a new link or drops one and shares the rest
+// when one side runs out, half of the other side is turned around onto it
+class DequeSnapshot<T> {
+  final Link<T> front;
+  final int frontSize;
+  final Link<T> back;
+  final int backSize;
+
+  DequeSnapshot(Link<T> front, int frontSize, Link<T> back, int backSize) {
+    this.front = front;
+    this.frontSize = frontSize;
+    this.back = back;
+    this.backSize = backSize;
+  }
+
+  // returns the number of items
+  int size() {
+    return this.frontSize + this.backSize;
+  }
+
+  // returns this snapshot with the value added at the head
+  DequeSnapshot<T> addAtHead(T value) {
+    return new DequeSnapshot<T>(new Link<T>(value, this.front), this.frontSize + 1,
+        this.back, this.backSize);
+  }
+
+  // returns this snapshot with the value added at the tail
+  DequeSnapshot<T> addAtTail(T value) {
+    return new DequeSnapshot<T>(this.front, this.frontSize,
+        new Link<T>(value, this.back), this.backSize + 1);
+  }
+
+  // returns this snapshot arranged so that front has the head item
+  // the snapshot must not be empty
+  DequeSnapshot<T> withFront() {
+    if (this.frontSize > 0) {
+      return this;
+    }
+    // back keeps the half nearest the tail, and the rest, which is back's far end,
+    // becomes front in head to tail order
+    int keep = this.backSize / 2;
+    Link<T> kept = null;
+    Link<T> current = this.back;
+    ArrayList<T> keptItems = new ArrayList<T>(keep);
+    for (int i = 0; i < keep; i++) {
+      keptItems.add(current.item);
+      current = current.rest;
+    }
+    for (int i = keep - 1; i >= 0; i--) {
+      kept = new Link<T>(keptItems.get(i), kept);
+    }
+    Link<T> moved = null;
+    while (current != null) {
+      moved = new Link<T>(current.item, moved);
+      current = current.rest;
+    }
+    return new DequeSnapshot<T>(moved, this.backSize - keep, kept, keep);
+  }
+
+  // returns this snapshot arranged so that back has the tail item
+  // the snapshot must not be empty
+  DequeSnapshot<T> withBack() {
+    if (this.backSize > 0) {
+      return this;
+    }
+    DequeSnapshot<T> flipped = new DequeSnapshot<T>(this.back, this.backSize,
+        this.front, this.frontSize).withFront();
+    return new DequeSnapshot<T>(flipped.back, flipped.backSize,
+        flipped.front, flipped.frontSize);
+  }
+
+  // returns the first item that satisfies the predicate, or null if none does
+  T findData(Predicate<T> pred) {
+    for (Link<T> current = this.front; current != null; current = current.rest) {
+      if (pred.test(current.item)) {
+        return current.item;
+      }
+    }
+    ArrayList<T> backItems = new ArrayList<T>(this.backSize);
+    for (Link<T> current = this.back; current != null; current = current.rest) {
+      backItems.add(current.item);
+    }
+    for (int i = backItems.size() - 1; i >= 0; i--) {
+      if (pred.test(backItems.get(i))) {
+        return backItems.get(i);
+      }
+    }
+    return null;
+  }
+}
+
+// represents a 2 way list that many threads can add to and remove from at once
+// without locking
+// the whole list is an immutable DequeSnapshot held in an AtomicReference: every
+// operation builds the next snapshot from the current one and swaps it in with a
+// compare-and-set, trying again if another thread swapped first
+// so every operation takes effect all at once at its successful swap, and some thread
+// always makes progress
+// turning one side around onto the other is O(n), so a remove that needs it swaps in the
+// turned around snapshot on its own first, and then tries its O(1) remove again; that
+// way a swap it loses only costs it the O(1) work, and the turning around is done once
+// for every thread rather than redone inside each retry
+class ConcurrentDeque<T> implements IDeque<T> {
+  AtomicReference<DequeSnapshot<T>> snapshot;
+
+  ConcurrentDeque() {
+    this.snapshot = new AtomicReference<DequeSnapshot<T>>(
+        new DequeSnapshot<T>(null, 0, null, 0));
+  }
+
+  // returns the number of items in the list right now
+  public int size() {
+    return this.snapshot.get().size();
+  }
+
+  // inserts value at the front of the list
+  public void addAtHead(T value) {
+    DequeSnapshot<T> current = this.snapshot.get();
+    while (!this.snapshot.compareAndSet(current, current.addAtHead(value))) {
+      current = this.snapshot.get();
+    }
+  }
+
+  // inserts value at the end of the list
+  public void addAtTail(T value) {
+    DequeSnapshot<T> current = this.snapshot.get();
+    while (!this.snapshot.compareAndSet(current, current.addAtTail(value))) {
+      current = this.snapshot.get();
+    }
+  }
+
+  // removes the first item in the list and returns it
+  public T removeFromHead() {
+    Link<T> removed = this.takeHead();
+    if (removed == null) {
+      throw new RuntimeException("Cannot remove from an empty list");
+    }
+    return removed.item;
+  }
+
+  // removes the last item in the list and returns it
+  public T removeFromTail() {
+    Link<T> removed = this.takeTail();
+    if (removed == null) {
+      throw new RuntimeException("Cannot remove from an empty list");
+    }
+    return removed.item;
+  }
+
+  // removes the first item in the list and returns it, or returns null if it is empty
+  T pollHead() {
+    Link<T> removed = this.takeHead();
+    if (removed == null) {
+      return null;
+    }
+    return removed.item;
+  }
+
+  // removes the last item in the list and returns it, or returns null if it is empty
+  T pollTail() {
+    Link<T> removed = this.takeTail();
+    if (removed == null) {
+      return null;
+    }
+    return removed.item;
+  }
+
+  // EFFECT: removes the first item in the list
+  // returns the link that held it, or null if the list was empty
+  Link<T> takeHead() {
+    while (true) {
+      DequeSnapshot<T> current = this.snapshot.get();
+      if (current.size() == 0) {
+        return null;
+      }
+      else if (current.frontSize > 0) {
+        if (this.snapshot.compareAndSet(current, new DequeSnapshot<T>(current.front.rest,
+            current.frontSize - 1, current.back, current.backSize))) {
+          return current.front;
+        }
+      }
+      else if (current.backSize == 1) {
+        // the only item can be taken from back as it is, so threads removing from
+        // both ends don't keep turning it from one side to the other
+        if (this.snapshot.compareAndSet(current, new DequeSnapshot<T>(null, 0, null, 0))) {
+          return current.back;
+        }
+      }
+      else {
+        // if this swap loses, another thread changed the list, and maybe turned it
+        // around already, so either way it is read again
+        this.snapshot.compareAndSet(current, current.withFront());
+      }
+    }
+  }
+
+  // EFFECT: removes the last item in the list
+  // returns the link that held it, or null if the list was empty
+  Link<T> takeTail() {
+    while (true) {
+      DequeSnapshot<T> current = this.snapshot.get();
+      if (current.size() == 0) {
+        return null;
+      }
+      else if (current.backSize > 0) {
+        if (this.snapshot.compareAndSet(current, new DequeSnapshot<T>(current.front,
+            current.frontSize, current.back.rest, current.backSize - 1))) {
+          return current.back;
+        }
+      }
+      else if (current.frontSize == 1) {
+        if (this.snapshot.compareAndSet(current, new DequeSnapshot<T>(null, 0, null, 0))) {
+          return current.front;
+        }
+      }
+      else {
+        this.snapshot.compareAndSet(current, current.withBack());
+      }
+    }
+  }
+
+  // returns the first item that satisfies the predicate, or null if none does,
+  // searching the list as it was when the search started
+  public T findData(Predicate<T> pred) {
+    return this.snapshot.get().findData(pred);
+  }
+}
+
+// represents one call a thread made on a deque, for HistoryChecker
+// value is what was added, or what was removed (null if the deque was empty), and start
+// and end are ticks of a clock shared by the threads, taken just before the call and
+// just after it
+class RecordedCall {
+  String op;
+  Integer value;
+  long start;
+  long end;
+
+  RecordedCall(String op, Integer value, long start, long end) {
+    this.op = op;
+    this.value = value;
+    this.start = start;
+    this.end = end;
+  }
+}
+
+// checks whether calls that several threads made on a deque at once are linearizable:
+// whether they can be put in some order, with every call that ended before another one
+// started ahead of it, in which an ArrayDeque called one at a time gives the same results
+// like Wing and Gong's search, it tries each call that could come next and backtracks,
+// remembering which calls done and deque contents it has already ruled out; that is
+// still exponential in the worst case, so it is only for short histories
+class HistoryChecker {
+  ArrayList<RecordedCall> calls;
+  boolean[] done;
+  ArrayDeque<Integer> model;
+  HashSet<String> ruledOut;
+
+  HistoryChecker(ArrayList<RecordedCall> calls) {
+    this.calls = calls;
+    this.done = new boolean[calls.size()];
+    this.model = new ArrayDeque<Integer>();
+    this.ruledOut = new HashSet<String>();
+  }
+
+  // is there such an order for the calls?
+  boolean linearizable() {
+    return this.search(0);
+  }
+
+  // is there such an order for the calls that aren't done, starting from the model as
+  // it is after the ones that are?
+  boolean search(int doneCount) {
+    if (doneCount == this.calls.size()) {
+      return true;
+    }
+    String state = Arrays.toString(this.done) + this.model;
+    if (this.ruledOut.contains(state)) {
+      return false;
+    }
+    // a call can only come next if it started before every call left has ended
+    long firstEnd = Long.MAX_VALUE;
+    for (int i = 0; i < this.calls.size(); i++) {
+      if (!this.done[i]) {
+        firstEnd = Math.min(firstEnd, this.calls.get(i).end);
+      }
+    }
+    for (int i = 0; i < this.calls.size(); i++) {
+      RecordedCall call = this.calls.get(i);
+      if (!this.done[i] && call.start < firstEnd && this.apply(call)) {
+        this.done[i] = true;
+        boolean found = this.search(doneCount + 1);
+        this.done[i] = false;
+        this.undo(call);
+        if (found) {
+          return true;
+        }
+      }
+    }
+    this.ruledOut.add(state);
+    return false;
+  }
+
+  // EFFECT: makes the call on the model if it gives the recorded result there
+  // returns whether it did
+  boolean apply(RecordedCall call) {
+    if (call.op.equals("addAtHead")) {
+      this.model.addFirst(call.value);
+    }
+    else if (call.op.equals("addAtTail")) {
+      this.model.addLast(call.value);
+    }
+    else if (call.op.equals("pollHead")) {
+      if (!Objects.equals(this.model.peekFirst(), call.value)) {
+        return false;
+      }
+      this.model.pollFirst();
+    }
+    else {
+      if (!Objects.equals(this.model.peekLast(), call.value)) {
+        return false;
+      }
+      this.model.pollLast();
+    }
+    return true;
+  }
+
+  // EFFECT: takes back a call that apply made on the model
+  void undo(RecordedCall call) {
+    if (call.op.equals("addAtHead")) {
+      this.model.removeFirst();
+    }
+    else if (call.op.equals("addAtTail")) {
+      this.model.removeLast();
+    }
+    else if (call.value != null && call.op.equals("pollHead")) {
+      this.model.addFirst(call.value);
+    }
+    else if (call.value != null) {
+      this.model.addLast(call.value);
+    }
+  }
+}
+
+// measures how many adds and removes a millisecond ConcurrentDeque and the JDK's
+// ConcurrentLinkedDeque manage when several threads use them at once
+// run it with the tester on its own, e.g. tester.Main BenchmarksConcurrentDeque
+class BenchmarksConcurrentDeque {
+  int[] threadCounts = new int[] {1, 2, 4, 8};
+  int operations = 1000000;
+  int backlog = 1000000;
+
+  // returns how many adds and removes per millisecond the threads made together
+  // each thread adds an item at one end and removes one from the other, repeatedly
+  double measure(int threads, Consumer<Integer> add, Supplier<Integer> remove)
+      throws InterruptedException {
+    CountDownLatch ready = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(threads);
+    int perThread = this.operations / threads;
+    for (int i = 0; i < threads; i++) {
+      new Thread(() -> {
+        try {
+          ready.await();
+        }
+        catch (InterruptedException e) {
+          return;
+        }
+        for (int j = 0; j < perThread; j++) {
+          add.accept(j);
+          remove.get();
+        }
+        done.countDown();
+      }).start();
+    }
+    long start = System.nanoTime();
+    ready.countDown();
+    done.await();
+    long nanos = System.nanoTime() - start;
+    return 2.0 * perThread * threads / (nanos / 1000000.0);
+  }
+
+  // returns how many adds and removes per millisecond the threads made together
+  // the deque starts with backlog items added at the tail; then the producers add
+  // operations items at the tail between them, while the consumers remove from the head
+  // until every item is gone, so the consumers have to get through the backlog while
+  // the tail keeps changing under them
+  double measureBacklog(int producers, int consumers, Consumer<Integer> add,
+      Supplier<Integer> remove) throws InterruptedException {
+    for (int i = 0; i < this.backlog; i++) {
+      add.accept(i);
+    }
+    int perProducer = this.operations / producers;
+    AtomicLong left = new AtomicLong(this.backlog + (long) perProducer * producers);
+    CountDownLatch ready = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(producers + consumers);
+    for (int i = 0; i < producers; i++) {
+      new Thread(() -> {
+        try {
+          ready.await();
+        }
+        catch (InterruptedException e) {
+          return;
+        }
+        for (int j = 0; j < perProducer; j++) {
+          add.accept(j);
+        }
+        done.countDown();
+      }).start();
+    }
+    for (int i = 0; i < consumers; i++) {
+      new Thread(() -> {
+        try {
+          ready.await();
+        }
+        catch (InterruptedException e) {
+          return;
+        }
+        while (left.get() > 0) {
+          if (remove.get() != null) {
+            left.decrementAndGet();
+          }
+        }
+        done.countDown();
+      }).start();
+    }
+    long start = System.nanoTime();
+    ready.countDown();
+    done.await();
+    long nanos = System.nanoTime() - start;
+    return (this.backlog + 2.0 * perProducer * producers) / (nanos / 1000000.0);
+  }
+
+  void testBacklog(Tester t) throws InterruptedException {
+    for (int threads : this.threadCounts) {
+      int producers = Math.max(1, threads / 2);
+      int consumers = Math.max(1, threads - producers);
+      for (int round = 0; round < 2; round++) {
+        ConcurrentDeque<Integer> ours = new ConcurrentDeque<Integer>();
+        ConcurrentLinkedDeque<Integer> theirs = new ConcurrentLinkedDeque<Integer>();
+        double oursRate = this.measureBacklog(producers, consumers, ours::addAtTail,
+            ours::pollHead);
+        double theirsRate = this.measureBacklog(producers, consumers, theirs::addLast,
+            theirs::pollFirst);
+        if (round == 1) {
+          System.out.println(String.format(
+              "%d producers, %d consumers, backlog of %d: "
+              + "ConcurrentDeque %.0f ops/ms, ConcurrentLinkedDeque %.0f ops/ms",
+              producers, consumers, this.backlog, oursRate, theirsRate));
+        }
+      }
+    }
+  }
+
+  void testThroughput(Tester t) throws InterruptedException {
+    for (int threads : this.threadCounts) {
+      // the first run of each warms up the JIT
+      for (int round = 0; round < 2; round++) {
+        ConcurrentDeque<Integer> ours = new ConcurrentDeque<Integer>();
+        ConcurrentLinkedDeque<Integer> theirs = new ConcurrentLinkedDeque<Integer>();
+        double oursRate = this.measure(threads, ours::addAtTail, ours::pollHead);
+        double theirsRate = this.measure(threads, theirs::addLast, theirs::pollFirst);
+        if (round == 1) {
+          System.out.println(String.format(
+              "%d threads: ConcurrentDeque %.0f ops/ms, ConcurrentLinkedDeque %.0f ops/ms",
+              threads, oursRate, theirsRate));
+        }
+      }
+    }
+  }
+}
+
+class ExamplesConcurrentDeque {
+  void testOneThread(Tester t) {
+    ConcurrentDeque<String> deque = new ConcurrentDeque<String>();
+    t.checkExpect(deque.size(), 0);
+    t.checkExceptionType(RuntimeException.class, deque, "removeFromHead");
+    t.checkExceptionType(RuntimeException.class, deque, "removeFromTail");
+    t.checkExpect(deque.pollHead(), null);
+
+    deque.addAtTail("bcd");
+    deque.addAtTail("cde");
+    deque.addAtHead("abc");
+    deque.addAtTail("def");
+    t.checkExpect(deque.size(), 4);
+    t.checkExpect(deque.findData(s -> s.startsWith("c")), "cde");
+    t.checkExpect(deque.findData(s -> s.startsWith("x")), null);
+    // everything added at the tail has to be turned around to come off the head
+    t.checkExpect(deque.removeFromHead(), "abc");
+    t.checkExpect(deque.removeFromHead(), "bcd");
+    t.checkExpect(deque.removeFromTail(), "def");
+    t.checkExpect(deque.removeFromTail(), "cde");
+    t.checkExpect(deque.pollTail(), null);
+  }
+
+  void testSameAsArrayDeque(Tester t) {
+    // random operations give the same results as java.util.ArrayDeque
+    ConcurrentDeque<Integer> deque = new ConcurrentDeque<Integer>();
+    ArrayDeque<Integer> expected = new ArrayDeque<Integer>();
+    Random random = new Random(7);
+    boolean same = true;
+    for (int i = 0; i < 100000; i++) {
+      int choice = random.nextInt(4);
+      if (choice == 0) {
+        deque.addAtHead(i);
+        expected.addFirst(i);
+      }
+      else if (choice == 1) {
+        deque.addAtTail(i);
+        expected.addLast(i);
+      }
+      else if (choice == 2) {
+        same = same && Objects.equals(deque.pollHead(), expected.pollFirst());
+      }
+      else {
+        same = same && Objects.equals(deque.pollTail(), expected.pollLast());
+      }
+      same = same && deque.size() == expected.size();
+    }
+    t.checkExpect(same, true);
+  }
+
+  void testHistoryChecker(Tester t) {
+    // a poll that overlaps the add it sees can come after it
+    ArrayList<RecordedCall> overlapping = new ArrayList<RecordedCall>();
+    overlapping.add(new RecordedCall("addAtTail", 1, 1, 4));
+    overlapping.add(new RecordedCall("pollHead", 1, 2, 3));
+    t.checkExpect(new HistoryChecker(overlapping).linearizable(), true);
+
+    // but not one that ended before the add started
+    ArrayList<RecordedCall> early = new ArrayList<RecordedCall>();
+    early.add(new RecordedCall("addAtTail", 1, 3, 4));
+    early.add(new RecordedCall("pollHead", 1, 1, 2));
+    t.checkExpect(new HistoryChecker(early).linearizable(), false);
+
+    // and a poll can't find the deque empty after an add has ended
+    ArrayList<RecordedCall> missed = new ArrayList<RecordedCall>();
+    missed.add(new RecordedCall("addAtTail", 1, 1, 2));
+    missed.add(new RecordedCall("pollTail", null, 3, 4));
+    t.checkExpect(new HistoryChecker(missed).linearizable(), false);
+
+    // adds that overlap can take effect in either order, but ones that don't can't
+    ArrayList<RecordedCall> swapped = new ArrayList<RecordedCall>();
+    swapped.add(new RecordedCall("addAtTail", 1, 1, 4));
+    swapped.add(new RecordedCall("addAtTail", 2, 2, 3));
+    swapped.add(new RecordedCall("pollHead", 2, 5, 6));
+    swapped.add(new RecordedCall("addAtHead", 3, 7, 8));
+    swapped.add(new RecordedCall("pollTail", 1, 9, 10));
+    swapped.add(new RecordedCall("pollHead", 3, 11, 12));
+    t.checkExpect(new HistoryChecker(swapped).linearizable(), true);
+    swapped.set(1, new RecordedCall("addAtTail", 2, 5, 6));
+    swapped.set(2, new RecordedCall("pollHead", 2, 7, 8));
+    swapped.set(3, new RecordedCall("addAtHead", 3, 2, 3));
+    t.checkExpect(new HistoryChecker(swapped).linearizable(), false);
+  }
+
+  void testLinearizable(Tester t) throws InterruptedException, ExecutionException {
+    // a few threads make short random runs of adds and polls at both ends at once,
+    // and the history of every run has to be linearizable
+    // the histories are kept short so the checker's search stays small
+    int threads = 3;
+    int callsPerThread = 6;
+    int runs = 500;
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    boolean finished = true;
+    int notLinearizable = 0;
+    try {
+      for (int run = 0; run < runs && finished; run++) {
+        ConcurrentDeque<Integer> deque = new ConcurrentDeque<Integer>();
+        AtomicLong clock = new AtomicLong(0);
+        CountDownLatch go = new CountDownLatch(1);
+        ArrayList<Future<ArrayList<RecordedCall>>> histories =
+            new ArrayList<Future<ArrayList<RecordedCall>>>();
+        for (int thread = 0; thread < threads; thread++) {
+          int firstValue = thread * callsPerThread;
+          Random random = new Random(run * threads + thread);
+          histories.add(pool.submit(() -> {
+            ArrayList<RecordedCall> calls = new ArrayList<RecordedCall>();
+            if (!go.await(10, TimeUnit.SECONDS)) {
+              return calls;
+            }
+            for (int i = 0; i < callsPerThread; i++) {
+              int choice = random.nextInt(4);
+              Integer value = firstValue + i;
+              String op;
+              long start = clock.incrementAndGet();
+              if (choice == 0) {
+                op = "addAtHead";
+                deque.addAtHead(value);
+              }
+              else if (choice == 1) {
+                op = "addAtTail";
+                deque.addAtTail(value);
+              }
+              else if (choice == 2) {
+                op = "pollHead";
+                value = deque.pollHead();
+              }
+              else {
+                op = "pollTail";
+                value = deque.pollTail();
+              }
+              calls.add(new RecordedCall(op, value, start, clock.incrementAndGet()));
+            }
+            return calls;
+          }));
+        }
+        go.countDown();
+        ArrayList<RecordedCall> history = new ArrayList<RecordedCall>();
+        for (Future<ArrayList<RecordedCall>> calls : histories) {
+          try {
+            history.addAll(calls.get(10, TimeUnit.SECONDS));
+          }
+          catch (TimeoutException e) {
+            finished = false;
+          }
+        }
+        if (finished && !new HistoryChecker(history).linearizable()) {
+          notLinearizable = notLinearizable + 1;
+        }
+      }
+    }
+    finally {
+      pool.shutdownNow();
+    }
+    t.checkExpect(finished, true);
+    t.checkExpect(notLinearizable, 0);
+  }
+}
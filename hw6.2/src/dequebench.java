@@ -0,0 +1,73 @@
+import tester.*;
+import java.lang.management.ManagementFactory;
+
+// measures how much a Deque allocates while items are added at one end and removed
+// from the other, which keeps it at the same length
+// the bytes come from the JVM's count of what this thread has allocated, which only
+// HotSpot's com.sun.management.ThreadMXBean gives
+class DequeChurn {
+  int length;
+  int operations;
+
+  DequeChurn(int length, int operations) {
+    this.length = length;
+    this.operations = operations;
+  }
+
+  // returns the bytes allocated and the nanoseconds taken per add and remove
+  // after filling the deque to length
+  // the adds and removes are run once first, without being measured, so the JIT has
+  // compiled them and a pool has filled up
+  double[] measure(Deque<String> deque) {
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+    for (int i = 0; i < this.length; i++) {
+      deque.addAtTail("item");
+    }
+    this.churn(deque);
+    long bytesBefore = threads.getThreadAllocatedBytes(threadId);
+    long start = System.nanoTime();
+    this.churn(deque);
+    long nanos = System.nanoTime() - start;
+    long bytes = threads.getThreadAllocatedBytes(threadId) - bytesBefore;
+    return new double[] {(double) bytes / this.operations, (double) nanos / this.operations};
+  }
+
+  // EFFECT: adds an item at the tail and removes one from the head, operations times
+  void churn(Deque<String> deque) {
+    for (int i = 0; i < this.operations; i++) {
+      deque.addAtTail("item");
+      deque.removeFromHead();
+    }
+  }
+}
+
+// prints how much a Deque allocates and how long it takes per add and remove, with
+// and without a pool of removed nodes
+// run it with the tester on its own, e.g. tester.Main BenchmarksDeque
+class BenchmarksDeque {
+  int[] poolCapacities = new int[] {0, 1024};
+  DequeChurn churn = new DequeChurn(1000, 5000000);
+
+  void testAllocation(Tester t) {
+    for (int poolCapacity : this.poolCapacities) {
+      double[] result = this.churn.measure(new Deque<String>(poolCapacity));
+      System.out.println(String.format(
+          "pool of %d: %.1f bytes and %.1f ns per add and remove",
+          poolCapacity, result[0], result[1]));
+    }
+  }
+}
+
+class ExamplesDequeBench {
+  void testPoolAllocatesNothing(Tester t) {
+    DequeChurn churn = new DequeChurn(100, 200000);
+    // once warmed up, adding and removing at the same rate reuses the pool's nodes
+    double[] pooled = churn.measure(new Deque<String>(16));
+    t.checkExpect(pooled[0] < 1, true);
+    // without a pool, every add makes a node, so this fails if measuring stops working
+    double[] unpooled = churn.measure(new Deque<String>());
+    t.checkExpect(unpooled[0] >= 16, true);
+  }
+}
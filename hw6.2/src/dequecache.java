@@ -0,0 +1,464 @@
+import tester.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.function.*;
+
+// represents one value kept in a cache, with its key, weight and how often it was used
+class CacheEntry<K, V> {
+  K key;
+  V value;
+  long weight;
+  long uses;
+
+  CacheEntry(K key, V value, long weight, long uses) {
+    this.key = key;
+    this.value = value;
+    this.weight = weight;
+    this.uses = uses;
+  }
+}
+
+// represents a cache that holds at most capacity entries with weights adding up to
+// at most maxWeight, and evicts entries to stay within both
+// which entry is evicted first is up to the kind of cache
+// counts hits, misses and evictions, and tells onEvict about every entry it evicts
+// (but not ones removed with remove)
+// a cache is not safe for several threads to use at once, since even get moves entries
+// around; threads that share one have to synchronize on it themselves
+abstract class ACache<K, V> {
+  int capacity;
+  long maxWeight;
+  BiConsumer<K, V> onEvict;
+  long totalWeight;
+  long hits;
+  long misses;
+  long evictions;
+
+  ACache(int capacity, long maxWeight, BiConsumer<K, V> onEvict) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Capacity must be at least 1");
+    }
+    else if (maxWeight < 1) {
+      throw new IllegalArgumentException("Max weight must be at least 1");
+    }
+    this.capacity = capacity;
+    this.maxWeight = maxWeight;
+    this.onEvict = onEvict;
+    this.totalWeight = 0;
+    this.hits = 0;
+    this.misses = 0;
+    this.evictions = 0;
+  }
+
+  // returns the value for the key, or null if it isn't cached
+  // EFFECT: counts a hit or a miss, and counts a use of the entry on a hit
+  V get(K key) {
+    CacheEntry<K, V> entry = this.lookup(key);
+    if (entry == null) {
+      this.misses = this.misses + 1;
+      return null;
+    }
+    this.hits = this.hits + 1;
+    this.touch(entry);
+    return entry.value;
+  }
+
+  // EFFECT: caches the value for the key with a weight of 1
+  void put(K key, V value) {
+    this.put(key, value, 1);
+  }
+
+  // EFFECT: caches the value for the key with the given weight, replacing any value the
+  // key had, and evicts entries until the cache is within its limits again
+  // replacing a value counts as a use of the entry, which stays where that use puts it,
+  // and is never evicted to make room for itself
+  void put(K key, V value, long weight) {
+    if (weight < 1 || weight > this.maxWeight) {
+      throw new IllegalArgumentException("Weight must be from 1 to " + this.maxWeight);
+    }
+    CacheEntry<K, V> old = this.lookup(key);
+    int room = this.capacity - 1;
+    if (old != null) {
+      this.touch(old);
+      this.totalWeight = this.totalWeight - old.weight;
+      room = this.capacity;
+    }
+    while (this.size() > room || this.totalWeight + weight > this.maxWeight) {
+      CacheEntry<K, V> victim = this.victim(old);
+      this.removeEntry(victim);
+      this.totalWeight = this.totalWeight - victim.weight;
+      this.evictions = this.evictions + 1;
+      this.onEvict.accept(victim.key, victim.value);
+    }
+    if (old != null) {
+      old.value = value;
+      old.weight = weight;
+    }
+    else {
+      this.insert(new CacheEntry<K, V>(key, value, weight, 1));
+    }
+    this.totalWeight = this.totalWeight + weight;
+  }
+
+  // EFFECT: removes the key's value from the cache, without counting it as evicted
+  // returns the value it had, or null if it wasn't cached
+  V remove(K key) {
+    CacheEntry<K, V> entry = this.lookup(key);
+    if (entry == null) {
+      return null;
+    }
+    this.removeEntry(entry);
+    this.totalWeight = this.totalWeight - entry.weight;
+    return entry.value;
+  }
+
+  // returns the fraction of gets that found their key, or 0 before any get
+  double hitRate() {
+    long lookups = this.hits + this.misses;
+    if (lookups == 0) {
+      return 0;
+    }
+    return (double) this.hits / lookups;
+  }
+
+  // returns the number of entries in the cache
+  abstract int size();
+
+  // returns the entry for the key, or null if there isn't one, without using it
+  abstract CacheEntry<K, V> lookup(K key);
+
+  // EFFECT: counts a use of the entry
+  abstract void touch(CacheEntry<K, V> entry);
+
+  // EFFECT: adds a new entry to the cache
+  abstract void insert(CacheEntry<K, V> entry);
+
+  // EFFECT: takes the entry out of the cache
+  abstract void removeEntry(CacheEntry<K, V> entry);
+
+  // returns the entry to evict next other than spared, which may be null; the cache
+  // must have such an entry
+  abstract CacheEntry<K, V> victim(CacheEntry<K, V> spared);
+}
+
+// represents a cache that evicts the least recently used entry first
+// the entries are kept in an IndexedDeque from most to least recently used: a use moves
+// an entry's node to the head, and the victim is the tail, so everything is O(1)
+class LruCache<K, V> extends ACache<K, V> {
+  IndexedDeque<K, CacheEntry<K, V>> entries;
+
+  LruCache(int capacity, long maxWeight, BiConsumer<K, V> onEvict) {
+    super(capacity, maxWeight, onEvict);
+    this.entries = new IndexedDeque<K, CacheEntry<K, V>>(entry -> entry.key);
+  }
+
+  LruCache(int capacity) {
+    this(capacity, Long.MAX_VALUE, (key, value) -> { });
+  }
+
+  // returns the number of entries in the cache
+  int size() {
+    return this.entries.size();
+  }
+
+  // returns the entry for the key, or null if there isn't one
+  CacheEntry<K, V> lookup(K key) {
+    return this.entries.findByKey(key).dataOr(null);
+  }
+
+  // EFFECT: makes the entry the most recently used one
+  void touch(CacheEntry<K, V> entry) {
+    entry.uses = entry.uses + 1;
+    this.entries.moveToHead(this.entries.findByKey(entry.key));
+  }
+
+  // EFFECT: adds the entry as the most recently used one
+  void insert(CacheEntry<K, V> entry) {
+    this.entries.addAtHead(entry);
+  }
+
+  // EFFECT: takes the entry out of the deque
+  void removeEntry(CacheEntry<K, V> entry) {
+    this.entries.removeByKey(entry.key);
+  }
+
+  // returns the least recently used entry other than spared
+  CacheEntry<K, V> victim(CacheEntry<K, V> spared) {
+    ANode<CacheEntry<K, V>> last = this.entries.header.prev;
+    if (last.dataOr(null) == spared) {
+      last = last.prev;
+    }
+    return last.dataOr(null);
+  }
+}
+
+// represents the entries of an LfuCache that have been used the same number of times,
+// from most to least recently used
+class UsesBucket<K, V> {
+  long uses;
+  Deque<CacheEntry<K, V>> entries;
+
+  UsesBucket(long uses) {
+    this.uses = uses;
+    this.entries = new Deque<CacheEntry<K, V>>();
+  }
+}
+
+// represents where an LfuCache keeps one entry: its node, and the node of its bucket
+class LfuSlot<K, V> {
+  Node<CacheEntry<K, V>> node;
+  Node<UsesBucket<K, V>> bucket;
+
+  LfuSlot(Node<CacheEntry<K, V>> node, Node<UsesBucket<K, V>> bucket) {
+    this.node = node;
+    this.bucket = bucket;
+  }
+}
+
+// represents a cache that evicts the least frequently used entry first, and the least
+// recently used of those if several have been used as few times
+// the entries are kept in buckets, one for each number of uses that some entry has,
+// in a deque from fewest to most uses; a use relinks an entry's node from its bucket
+// to the head of the bucket just after it, making that bucket first if it isn't there,
+// and the victim is the tail of the first bucket, so everything is O(1)
+// a new entry or a new bucket makes a node, but a use of an entry that is the only
+// one in its bucket just renumbers the bucket
+class LfuCache<K, V> extends ACache<K, V> {
+  HashMap<K, LfuSlot<K, V>> slots;
+  // the buckets from fewest to most uses, none of them empty
+  Deque<UsesBucket<K, V>> buckets;
+
+  LfuCache(int capacity, long maxWeight, BiConsumer<K, V> onEvict) {
+    super(capacity, maxWeight, onEvict);
+    this.slots = new HashMap<K, LfuSlot<K, V>>();
+    this.buckets = new Deque<UsesBucket<K, V>>();
+  }
+
+  LfuCache(int capacity) {
+    this(capacity, Long.MAX_VALUE, (key, value) -> { });
+  }
+
+  // returns the number of entries in the cache
+  int size() {
+    return this.slots.size();
+  }
+
+  // returns the entry for the key, or null if there isn't one
+  CacheEntry<K, V> lookup(K key) {
+    LfuSlot<K, V> slot = this.slots.get(key);
+    if (slot == null) {
+      return null;
+    }
+    return slot.node.data;
+  }
+
+  // EFFECT: moves the entry from its bucket to the head of the bucket for one more use
+  void touch(CacheEntry<K, V> entry) {
+    LfuSlot<K, V> slot = this.slots.get(entry.key);
+    Node<UsesBucket<K, V>> from = slot.bucket;
+    entry.uses = entry.uses + 1;
+    UsesBucket<K, V> next = from.next.dataOr(null);
+    if (from.data.entries.size() == 1 && (next == null || next.uses != entry.uses)) {
+      from.data.uses = entry.uses;
+      return;
+    }
+    Node<UsesBucket<K, V>> to = this.bucketAfter(from, entry.uses);
+    to.data.entries.moveToHeadFrom(from.data.entries, slot.node);
+    slot.bucket = to;
+    this.dropIfEmpty(from);
+  }
+
+  // EFFECT: adds the entry at the head of the first bucket, for a single use
+  void insert(CacheEntry<K, V> entry) {
+    Node<UsesBucket<K, V>> bucket = this.bucketAfter(this.buckets.header, entry.uses);
+    bucket.data.entries.addAtHead(entry);
+    this.slots.put(entry.key,
+        new LfuSlot<K, V>((Node<CacheEntry<K, V>>) bucket.data.entries.header.next, bucket));
+  }
+
+  // EFFECT: takes the entry out of its bucket and the map
+  void removeEntry(CacheEntry<K, V> entry) {
+    LfuSlot<K, V> slot = this.slots.remove(entry.key);
+    slot.bucket.data.entries.unlinkNode(slot.node);
+    this.dropIfEmpty(slot.bucket);
+  }
+
+  // returns the least recently used of the least used entries other than spared
+  CacheEntry<K, V> victim(CacheEntry<K, V> spared) {
+    ANode<UsesBucket<K, V>> first = this.buckets.header.next;
+    ANode<CacheEntry<K, V>> last = first.dataOr(null).entries.header.prev;
+    if (last.dataOr(null) == spared) {
+      last = last.prev;
+      if (last.isSentinel()) {
+        last = first.next.dataOr(null).entries.header.prev;
+      }
+    }
+    return last.dataOr(null);
+  }
+
+  // returns the bucket for the given number of uses, which must come right after the
+  // given bucket or the sentinel, making it there if there isn't one
+  Node<UsesBucket<K, V>> bucketAfter(ANode<UsesBucket<K, V>> node, long uses) {
+    UsesBucket<K, V> next = node.next.dataOr(null);
+    if (next != null && next.uses == uses) {
+      return (Node<UsesBucket<K, V>>) node.next;
+    }
+    return this.buckets.linkNode(new UsesBucket<K, V>(uses), node.next, node);
+  }
+
+  // EFFECT: takes the bucket out of the deque of buckets if it has no entries left
+  void dropIfEmpty(Node<UsesBucket<K, V>> bucket) {
+    if (bucket.data.entries.size() == 0) {
+      this.buckets.unlinkNode(bucket);
+    }
+  }
+}
+
+class ExamplesDequeCache {
+  ArrayList<String> evicted;
+  LruCache<String, Integer> lru;
+  LfuCache<String, Integer> lfu;
+
+  void init() {
+    evicted = new ArrayList<String>();
+    lru = new LruCache<String, Integer>(3, 10, (key, value) -> evicted.add(key + "=" + value));
+    lfu = new LfuCache<String, Integer>(3, 10, (key, value) -> evicted.add(key + "=" + value));
+  }
+
+  void testLruEviction(Tester t) {
+    init();
+    lru.put("a", 1);
+    lru.put("b", 2);
+    lru.put("c", 3);
+    // using a makes b the least recently used
+    t.checkExpect(lru.get("a"), 1);
+    lru.put("d", 4);
+    t.checkExpect(evicted.get(0), "b=2");
+    t.checkExpect(lru.get("b"), null);
+    t.checkExpect(lru.size(), 3);
+    t.checkExpect(lru.evictions, 1L);
+    t.checkExpect(lru.hits, 1L);
+    t.checkExpect(lru.misses, 1L);
+    t.checkExpect(lru.hitRate(), 0.5);
+
+    // replacing a value uses it, so c is evicted next
+    lru.put("a", 10);
+    lru.put("e", 5);
+    t.checkExpect(evicted.get(1), "c=3");
+    t.checkExpect(lru.get("a"), 10);
+
+    // removing isn't evicting
+    t.checkExpect(lru.remove("d"), 4);
+    t.checkExpect(lru.remove("d"), null);
+    t.checkExpect(evicted.size(), 2);
+    t.checkExpect(lru.size(), 2);
+  }
+
+  void testLruWeights(Tester t) {
+    init();
+    lru.put("a", 1, 4);
+    lru.put("b", 2, 4);
+    t.checkExpect(lru.totalWeight, 8L);
+    // 8 + 5 is over 10, so a goes even though there is room for another entry
+    lru.put("c", 3, 5);
+    t.checkExpect(evicted, new ArrayList<String>(Arrays.asList("a=1")));
+    t.checkExpect(lru.totalWeight, 9L);
+    // making c heavier pushes out b as well
+    lru.put("c", 3, 10);
+    t.checkExpect(lru.size(), 1);
+    t.checkExpect(lru.totalWeight, 10L);
+    t.checkExpect(evicted.get(1), "b=2");
+
+    t.checkException(new IllegalArgumentException("Weight must be from 1 to 10"),
+        lru, "put", "d", 4, 11L);
+    t.checkConstructorExceptionType(IllegalArgumentException.class, "LruCache", 0);
+  }
+
+  void testLfuEviction(Tester t) {
+    init();
+    lfu.put("a", 1);
+    lfu.put("b", 2);
+    lfu.put("c", 3);
+    lfu.get("a");
+    lfu.get("a");
+    lfu.get("c");
+    // b has the fewest uses
+    lfu.put("d", 4);
+    t.checkExpect(evicted.get(0), "b=2");
+    // c has been used twice and d once, so d goes
+    lfu.put("e", 5);
+    t.checkExpect(evicted.get(1), "d=4");
+    // once e is used, c and e have both been used twice, and c less recently
+    lfu.get("e");
+    lfu.put("f", 6);
+    t.checkExpect(evicted.get(2), "c=3");
+    t.checkExpect(lfu.get("a"), 1);
+    t.checkExpect(lfu.lookup("a").uses, 4L);
+    t.checkExpect(lfu.size(), 3);
+    t.checkExpect(lfu.evictions, 3L);
+
+    // f has 1 use, e 2 and a 4, each in a bucket of its own
+    t.checkExpect(lfu.buckets.size(), 3);
+    t.checkExpect(lfu.buckets.header.prev.dataOr(null).uses, 4L);
+    t.checkExpect(lfu.remove("a"), 1);
+    t.checkExpect(lfu.buckets.size(), 2);
+    t.checkExpect(lfu.buckets.header.prev.dataOr(null).uses, 2L);
+    t.checkExpect(lfu.size(), 2);
+  }
+
+  void testLfuBuckets(Tester t) {
+    init();
+    lfu.put("a", 1);
+    lfu.put("b", 2);
+    lfu.put("c", 3);
+    // a use moves the entry's own node to the next bucket
+    Node<CacheEntry<String, Integer>> node = lfu.slots.get("b").node;
+    lfu.get("b");
+    t.checkExpect(lfu.slots.get("b").node == node, true);
+    t.checkExpect(lfu.buckets.size(), 2);
+    t.checkExpect(lfu.buckets.header.next.dataOr(null).entries.size(), 2);
+    // b is alone in its bucket, so another use just renumbers it
+    UsesBucket<String, Integer> bucket = lfu.slots.get("b").bucket.data;
+    lfu.get("b");
+    t.checkExpect(lfu.slots.get("b").bucket.data == bucket, true);
+    t.checkExpect(bucket.uses, 3L);
+    // replacing c uses it too, so a is evicted rather than c
+    lfu.put("c", 30);
+    lfu.put("d", 4);
+    t.checkExpect(evicted, new ArrayList<String>(Arrays.asList("a=1")));
+    t.checkExpect(lfu.lookup("c").uses, 2L);
+    t.checkExpect(lfu.get("c"), 30);
+  }
+
+  void testReplaceSpared(Tester t) {
+    init();
+    lfu.put("a", 1, 3);
+    lfu.get("a");
+    lfu.get("a");
+    lfu.put("b", 2, 3);
+    // b is the least used, but growing it evicts a rather than b itself
+    lfu.put("b", 20, 8);
+    t.checkExpect(evicted, new ArrayList<String>(Arrays.asList("a=1")));
+    t.checkExpect(lfu.get("b"), 20);
+    t.checkExpect(lfu.totalWeight, 8L);
+    t.checkExpect(lfu.size(), 1);
+
+    lru.put("a", 1, 5);
+    lru.put("a", 10, 10);
+    t.checkExpect(lru.get("a"), 10);
+    t.checkExpect(lru.totalWeight, 10L);
+    t.checkExpect(lru.evictions, 0L);
+  }
+
+  void testLfuWeights(Tester t) {
+    init();
+    lfu.put("a", 1, 6);
+    lfu.get("a");
+    lfu.put("b", 2, 3);
+    // b is used less than a, so it goes first, and then a has to go too
+    lfu.put("c", 3, 5);
+    t.checkExpect(evicted, new ArrayList<String>(Arrays.asList("b=2", "a=1")));
+    t.checkExpect(lfu.totalWeight, 5L);
+  }
+}
@@ -1,51 +1,346 @@
 import tester.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.function.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// represents a list that can be added to and removed from at both ends
+// Deque links nodes together, and RingDeque keeps its items in a circular array
+interface IDeque<T> {
+  // returns the number of items in the list
+  int size();
+
+  // inserts value at the front of the list
+  void addAtHead(T value);
+
+  // inserts value at the end of the list
+  void addAtTail(T value);
+
+  // removes the first item in the list and returns it
+  T removeFromHead();
+
+  // removes the last item in the list and returns it
+  T removeFromTail();
+
+  // returns the first item that satisfies the predicate, or null if none does
+  T findData(Predicate<T> pred);
+}
 
 // represents a 2 way list
-class Deque<T> {
+// a deque built with a pool capacity keeps up to that many removed nodes on a free list
+// and reuses them for later adds, so a list that is added to and removed from at the
+// same rate stops allocating nodes; a node must not be used once it has been removed
+// from such a list, since it may already hold another item somewhere else in it
+class Deque<T> implements IDeque<T>, Iterable<T> {
   Sentinel<T> header;
+  // the most removed nodes kept for reuse, 0 unless asked for
+  int poolCapacity;
+  // the removed nodes kept for reuse, linked through their next fields
+  Node<T> freeNodes;
+  int freeCount;
   
   Deque() {
-    this.header = new Sentinel<T>();
+    this(new Sentinel<T>());
   }
 
   Deque(Sentinel<T> header) {
     this.header = header;
+    this.poolCapacity = 0;
+    this.freeNodes = null;
+    this.freeCount = 0;
+  }
+
+  // a deque with a pool reuses a removed node for a later add, so a node found with
+  // find or findByKey is no good once it has been removed: the same node may hold
+  // another item by then, and removing it again with removeNode would remove that item
+  Deque(int poolCapacity) {
+    this();
+    if (poolCapacity < 0) {
+      throw new IllegalArgumentException("Pool capacity cannot be negative");
+    }
+    this.poolCapacity = poolCapacity;
   }
 
   // returns the number of nodes in the list
-  int size() {
+  // the sentinel keeps count as nodes are added and removed, so this is O(1)
+  public int size() {
     return header.numNodes();
   }
 
   // inserts value at the front right after the header
-  void addAtHead(T value) {
-    this.header.addNodeToHead(value);
+  public void addAtHead(T value) {
+    this.linkNode(value, this.header.next, this.header);
   }
 
   // inserts value at the end right before the header
-  void addAtTail(T value) {
-    this.header.addNodeToTail(value);
+  public void addAtTail(T value) {
+    this.linkNode(value, this.header, this.header.prev);
   }
 
   // removes the first node in the list and returns the item that has been removed
-  T removeFromHead() {
-    return this.header.removeFirstNode();
+  public T removeFromHead() {
+    ANode<T> first = this.header.next;
+    T removed = this.header.removeFirstNode();
+    this.recycle(first);
+    return removed;
   }
 
   // removes the last node in the list and returns the item that has been removed
-  T removeFromTail() {
-    return this.header.removeLastNode();
+  public T removeFromTail() {
+    ANode<T> last = this.header.prev;
+    T removed = this.header.removeLastNode();
+    this.recycle(last);
+    return removed;
+  }
+
+  // returns a node holding value, linked in between prev and next and counted in the
+  // sentinel, taking it off the free list if there is one there
+  Node<T> linkNode(T value, ANode<T> next, ANode<T> prev) {
+    if (this.freeNodes == null) {
+      return new Node<T>(value, next, prev);
+    }
+    Node<T> node = this.freeNodes;
+    this.freeNodes = (Node<T>) node.next;
+    this.freeCount = this.freeCount - 1;
+    node.data = value;
+    node.next = next;
+    node.prev = prev;
+    next.prev = node;
+    prev.next = node;
+    this.header.count = this.header.count + 1;
+    return node;
+  }
+
+  // EFFECT: puts the removed node on the free list if there is room for it, clearing it
+  // first so it doesn't keep its item from being collected
+  void recycle(ANode<T> node) {
+    if (this.freeCount < this.poolCapacity && !node.isSentinel()) {
+      Node<T> free = (Node<T>) node;
+      free.data = null;
+      free.prev = null;
+      free.next = this.freeNodes;
+      this.freeNodes = free;
+      this.freeCount = this.freeCount + 1;
+    }
   }
 
   // returns the first node that satisfies the predicate
   ANode<T> find(Predicate<T> pred) {
     return this.header.findNode(pred);
   }
+
+  // returns the data of the first node that satisfies the predicate, or null if none does
+  public T findData(Predicate<T> pred) {
+    return this.find(pred).dataOr(null);
+  }
   
+  // EFFECT: moves the given node, which must be in this list, to the front
+  // does nothing if it is the sentinel, and doesn't change the size
+  void moveToHead(ANode<T> node) {
+    if (!node.isSentinel() && this.header.next != node) {
+      node.removeSelfVoid();
+      node.changeNext(this.header.next);
+      node.changePrev(this.header);
+      this.header.next.changePrev(node);
+      this.header.changeNext(node);
+    }
+  }
+
+  // EFFECT: moves the given node, which must be in the other list, to the front of this
+  // one, relinking it rather than making a new node, so this is O(1) for a plain Deque
+  // moving the sentinel changes nothing
+  void moveToHeadFrom(Deque<T> other, ANode<T> node) {
+    if (other == this) {
+      this.moveToHead(node);
+    }
+    else if (!node.isSentinel()) {
+      this.nodesArriving(node, node);
+      other.nodesLeaving(node, node);
+      node.removeSelfVoid();
+      other.header.count = other.header.count - 1;
+      node.changeNext(this.header.next);
+      node.changePrev(this.header);
+      this.header.next.changePrev(node);
+      this.header.changeNext(node);
+      this.header.count = this.header.count + 1;
+    }
+  }
+
+  // EFFECT: inserts each of the items at the end, in order
+  void addAllAtTail(Iterable<? extends T> items) {
+    for (T item : items) {
+      this.addAtTail(item);
+    }
+  }
+
+  // EFFECT: removes up to max items from the front and adds them to target, in order
+  // returns how many were moved
+  int drainTo(Collection<? super T> target, int max) {
+    if (max < 0) {
+      throw new IllegalArgumentException("Cannot drain a negative number of items");
+    }
+    int moved = 0;
+    while (moved < max && this.size() > 0) {
+      target.add(this.removeFromHead());
+      moved = moved + 1;
+    }
+    return moved;
+  }
+
+  // EFFECT: moves all of other's nodes into this list right after the given node, which
+  // must be in this list (the sentinel puts them at the front), leaving other empty
+  // the two runs are relinked at their ends and the counts are added, so this is O(1)
+  // for a plain Deque; a subclass that keeps track of its nodes is told about the run
+  // first, and may have to walk it
+  void spliceAfter(ANode<T> node, Deque<T> other) {
+    if (other == this) {
+      throw new IllegalArgumentException("Cannot splice a deque into itself");
+    }
+    if (other.size() == 0) {
+      return;
+    }
+    ANode<T> first = other.header.next;
+    ANode<T> last = other.header.prev;
+    this.nodesArriving(first, last);
+    other.nodesLeaving(first, last);
+    ANode<T> after = node.next;
+    node.changeNext(first);
+    first.changePrev(node);
+    last.changeNext(after);
+    after.changePrev(last);
+    this.header.count = this.header.count + other.header.count;
+
+    other.header.changeNext(other.header);
+    other.header.changePrev(other.header);
+    other.header.count = 0;
+  }
+
+  // EFFECT: moves all of other's nodes onto the end of this list in O(1),
+  // leaving other empty
+  void appendAll(Deque<T> other) {
+    this.spliceAfter(this.header.prev, other);
+  }
+
+  // EFFECT: moves the given node, which must be in this list, and every node after it
+  // out of this list, and returns them as a new deque like this one (see emptyLike)
+  // the sentinel moves nothing
+  // the run is relinked in O(1), but has to be counted, so the list is walked from the
+  // node towards both ends at once and the count comes from whichever end is closer
+  Deque<T> splitFrom(ANode<T> node) {
+    Deque<T> rest = this.emptyLike();
+    if (node.isSentinel()) {
+      return rest;
+    }
+    rest.nodesArriving(node, this.header.prev);
+    this.nodesLeaving(node, this.header.prev);
+    int after = 0;
+    int before = 0;
+    ANode<T> forward = node;
+    ANode<T> back = node.prev;
+    while (!forward.isSentinel() && !back.isSentinel()) {
+      after = after + 1;
+      before = before + 1;
+      forward = forward.next;
+      back = back.prev;
+    }
+    int moved = after;
+    if (!forward.isSentinel()) {
+      moved = this.header.count - before;
+    }
+
+    ANode<T> last = this.header.prev;
+    node.prev.changeNext(this.header);
+    this.header.changePrev(node.prev);
+    this.header.count = this.header.count - moved;
+
+    rest.header.changeNext(node);
+    node.changePrev(rest.header);
+    last.changeNext(rest.header);
+    rest.header.changePrev(last);
+    rest.header.count = moved;
+    return rest;
+  }
+
+  // returns a new empty deque with the same pool capacity, for splitFrom
+  Deque<T> emptyLike() {
+    return new Deque<T>(this.poolCapacity);
+  }
+
+  // EFFECT: gets ready for the nodes from first to last, which are still linked in
+  // another list, to be moved into this one without going through its adds
+  // throws, changing nothing, if they can't be; a plain Deque can take any nodes
+  void nodesArriving(ANode<T> first, ANode<T> last) {
+    // nothing to get ready
+  }
+
+  // EFFECT: gets ready for the nodes from first to last to be moved out of this list
+  // without going through its removes; a plain Deque has nothing to forget
+  void nodesLeaving(ANode<T> first, ANode<T> last) {
+    // nothing to forget
+  }
+
+  // returns an iterator over the data from head to tail
+  public Iterator<T> iterator() {
+    return new DequeIterator<T>(this);
+  }
+
+  // returns a spliterator over the data from head to tail, which knows the size
+  // up front since the sentinel keeps count
+  public Spliterator<T> spliterator() {
+    return Spliterators.spliterator(this.iterator(), this.size(), Spliterator.ORDERED);
+  }
+
+  // returns a stream of the data from head to tail
+  Stream<T> stream() {
+    return StreamSupport.stream(this.spliterator(), false);
+  }
+
   // EFFECT: removes the given node from the list
+  // does nothing if the node is the sentinel, has already been removed, or belongs to
+  // another list, so the counts of both lists stay right
+  // checking takes a walk from the node to the closer end of its list
   void removeNode(ANode<T> node) {
+    if (this.holds(node)) {
+      this.unlinkNode(node);
+    }
+  }
+
+  // is the given node one of the nodes of this list, not counting the sentinel?
+  // walks from the node towards both ends at once, so it takes as long as the node is
+  // far from the closer end
+  boolean holds(ANode<T> node) {
+    // a removed node may still point into the list, but nothing there points back to it
+    if (node.isSentinel() || node.prev == null || node.prev.next != node) {
+      return false;
+    }
+    ANode<T> forward = node.next;
+    ANode<T> backward = node.prev;
+    while (forward != node && forward != null && backward != null) {
+      if (forward.isSentinel()) {
+        return forward == this.header;
+      }
+      else if (backward.isSentinel()) {
+        return backward == this.header;
+      }
+      forward = forward.next;
+      backward = backward.prev;
+    }
+    return false;
+  }
+
+  // EFFECT: removes the given node, which must be one of this list's nodes, in O(1)
+  // for callers that already know where the node is, like the iterator
+  void unlinkNode(ANode<T> node) {
     node.removeSelfVoid();
+    this.header.count = this.header.count - 1;
+    this.recycle(node);
   }
 }
 
@@ -81,6 +376,12 @@ abstract class ANode<T> {
   // void method to remove this node from the list without throwing 
   // an error if it is the sentinel
   public abstract void removeSelfVoid();
+
+  // returns this node's data, or the given value if this is the sentinel
+  public abstract T dataOr(T otherwise);
+
+  // Is this the sentinel of its list?
+  public abstract boolean isSentinel();
 }
 
 // represents a Node in a list with a piece of data
@@ -103,12 +404,41 @@ class Node<T> extends ANode<T> {
     // update other nodes
     next.prev = this;
     prev.next = this;
+
+    // count this node in its list's sentinel, if it has one
+    Sentinel<T> sentinel = this.findSentinel();
+    if (sentinel != null) {
+      sentinel.count = sentinel.count + 1;
+    }
+  }
+
+  // returns the sentinel of the list this node is in, or null if it isn't in one
+  // a node added next to the sentinel, like addAtHead and addAtTail do, finds it
+  // straight away; otherwise the list is walked forward until it is reached
+  Sentinel<T> findSentinel() {
+    ANode<T> current = this.prev;
+    if (!current.isSentinel()) {
+      current = this.next;
+      while (current != null && current != this && !current.isSentinel()) {
+        current = current.next;
+      }
+    }
+    if (current == null || current == this) {
+      return null;
+    }
+    return (Sentinel<T>) current;
   }
 
   // accumulator to return the number of nodes in the list
-  // increments by 1 for each node
+  // increments by 1 for each node until it gets back to the sentinel
+  // loops instead of recursing, so a long list can't overflow the stack
   public int numNodesHelp(int count) {
-    return this.next.numNodesHelp(count + 1);
+    ANode<T> current = this;
+    while (!current.isSentinel()) {
+      count = count + 1;
+      current = current.next;
+    }
+    return count;
   }
   
   // removes this node from the list and returns what was removed
@@ -120,15 +450,15 @@ class Node<T> extends ANode<T> {
   }
 
   // helper method to find the node that satisfies the predicate
-  // applies predicate to this node's data and returns the node if 
-  // this node's data satisfies the predicate
+  // applies predicate to each node's data from this one on and returns the first node
+  // whose data satisfies it, or the sentinel if it gets back there first
+  // loops instead of recursing, so a long list can't overflow the stack
   public ANode<T> findNodeHelper(Predicate<T> pred) {
-    if (pred.test(this.data)) {
-      return this;
-    }
-    else {
-      return this.next.findNodeHelper(pred);
+    ANode<T> current = this;
+    while (!current.isSentinel() && !pred.test(current.dataOr(null))) {
+      current = current.next;
     }
+    return current;
   }
 
   // void method to remove this node from the list
@@ -136,19 +466,39 @@ class Node<T> extends ANode<T> {
     this.prev.changeNext(this.next);
     this.next.changePrev(this.prev);
   }
+
+  // returns this node's data
+  public T dataOr(T otherwise) {
+    return this.data;
+  }
+
+  // No, this is a node with data
+  public boolean isSentinel() {
+    return false;
+  }
 }
 
 // represents a Sentinel in a list
+// it keeps count of the nodes in its list: constructing a Node into the list adds one,
+// and removing one through the Sentinel or the Deque takes one away
 class Sentinel<T> extends ANode<T> {
+  int count;
+
   Sentinel() {
     super(null, null);
     this.next = this;
     this.prev = this;
+    this.count = 0;
   }
 
-  // gets the number of nodes in the list using an accumulator
-  // starts count at 0
+  // returns the number of nodes in the list
   int numNodes() {
+    return this.count;
+  }
+
+  // counts the nodes in the list by walking it, using an accumulator
+  // starts count at 0
+  int countNodes() {
     return this.next.numNodesHelp(0);
   }
 
@@ -159,25 +509,29 @@ class Sentinel<T> extends ANode<T> {
   }
 
   // adds new node to head by creating a new node and setting its next and prev
-  // to appropriate objects
-  public void addNodeToHead(T value) {
-    new Node<T>(value, this.next, this);
+  // to appropriate objects, and returns the new node
+  public Node<T> addNodeToHead(T value) {
+    return new Node<T>(value, this.next, this);
   }
 
   // adds new node to tail by creating a new node and setting its next and prev
-  // to appropriate objects
-  public void addNodeToTail(T value) {
-    new Node<T>(value, this, this.prev);
+  // to appropriate objects, and returns the new node
+  public Node<T> addNodeToTail(T value) {
+    return new Node<T>(value, this, this.prev);
   }
 
   // removes first node in the list
   public T removeFirstNode() {
-    return this.next.removeSelf();
+    T removed = this.next.removeSelf();
+    this.count = this.count - 1;
+    return removed;
   }
 
   // removes last node in the list
   public T removeLastNode() {
-    return this.prev.removeSelf();
+    T removed = this.prev.removeSelf();
+    this.count = this.count - 1;
+    return removed;
   }
   
   // throws an error if you try to remove a sentinel
@@ -202,6 +556,56 @@ class Sentinel<T> extends ANode<T> {
     // should no nothing if called with a Sentinel to remove
   }
 
+  // the sentinel has no data, so returns the given value
+  public T dataOr(T otherwise) {
+    return otherwise;
+  }
+
+  // Yes, this is the sentinel
+  public boolean isSentinel() {
+    return true;
+  }
+
+}
+
+// iterates over the data of a Deque from head to tail
+// remove takes the last node returned out of the deque
+class DequeIterator<T> implements Iterator<T> {
+  Deque<T> deque;
+  // the next node to return
+  ANode<T> current;
+  // the node returned last, or the sentinel if there isn't one to remove
+  ANode<T> last;
+
+  DequeIterator(Deque<T> deque) {
+    this.deque = deque;
+    this.current = deque.header.next;
+    this.last = deque.header;
+  }
+
+  // are there any nodes left before the sentinel?
+  public boolean hasNext() {
+    return !this.current.isSentinel();
+  }
+
+  // returns the data of the next node and moves on to the one after it
+  public T next() {
+    if (!this.hasNext()) {
+      throw new NoSuchElementException("No more items in the deque");
+    }
+    this.last = this.current;
+    this.current = this.current.next;
+    return this.last.dataOr(null);
+  }
+
+  // EFFECT: removes the node returned last from the deque
+  public void remove() {
+    if (this.last.isSentinel()) {
+      throw new IllegalStateException("Nothing to remove");
+    }
+    this.deque.unlinkNode(this.last);
+    this.last = this.deque.header;
+  }
 }
 
 class ExamplesDeques {
@@ -339,6 +743,10 @@ class ExamplesDeques {
     t.checkExpect(deque1.find(new BeginsWithD()), deque1.header);
     t.checkExpect(deque2.find(new BeginsWithD()), def);
     t.checkExpect(deque3.find(new BeginsWithD()), deque3.header);
+
+    t.checkExpect(deque3.findData(new FindSugar()), "sugar");
+    t.checkExpect(deque2.findData(new BeginsWithD()), "def");
+    t.checkExpect(deque1.findData(new FindSugar()), null);
   }
 
   void testRemoveNode(Tester t) {
@@ -363,6 +771,283 @@ class ExamplesDeques {
     deque2.removeNode(bcd);
     t.checkExpect(deque2.size(), 3);
     t.checkExpect(deque2.find(new Isbcd()), start); // makes sure bcd is not in the list anymore
+
+    // removing it again changes nothing
+    deque2.removeNode(bcd);
+    t.checkExpect(deque2.size(), 3);
+
+    // a node of another list is left alone, and neither count changes
+    deque2.removeNode(sugar);
+    t.checkExpect(deque2.size(), 3);
+    t.checkExpect(deque3.size(), 5);
+    t.checkExpect(butter.next, sugar);
+    t.checkExpect(chocolate.prev, sugar);
+    t.checkExpect(deque2.holds(abc), true);
+    t.checkExpect(deque2.holds(def), true);
+    t.checkExpect(deque2.holds(cde), true);
+    t.checkExpect(deque2.holds(bcd), false);
+    t.checkExpect(deque2.holds(start), false);
+    t.checkExpect(deque2.holds(eggs), false);
+    t.checkExpect(deque2.holds(new Node<String>("xyz")), false);
+
+    // a pooled list doesn't take another list's node into its pool either
+    Deque<String> pooled = new Deque<String>(4);
+    pooled.addAtTail("abc");
+    pooled.removeNode(flour);
+    t.checkExpect(pooled.size(), 1);
+    t.checkExpect(pooled.freeCount, 0);
+    t.checkExpect(flour.data, "flour");
+    t.checkExpect(deque3.size(), deque3.header.countNodes());
+  }
+
+  void testMoveToHead(Tester t) {
+    init();
+    deque2.moveToHead(cde);
+    t.checkExpect(deque2.header.next, cde);
+    t.checkExpect(cde.prev, start);
+    t.checkExpect(cde.next, abc);
+    t.checkExpect(abc.prev, cde);
+    t.checkExpect(bcd.next, def);
+    t.checkExpect(def.prev, bcd);
+    t.checkExpect(deque2.size(), 4);
+
+    // the tail can move, and moving the head or the sentinel changes nothing
+    deque2.moveToHead(def);
+    deque2.moveToHead(def);
+    deque2.moveToHead(start);
+    t.checkExpect(deque2.header.next, def);
+    t.checkExpect(deque2.header.prev, bcd);
+    t.checkExpect(deque2.size(), start.countNodes());
+    t.checkExpect(deque2.removeFromHead(), "def");
+    t.checkExpect(deque2.removeFromHead(), "cde");
+    t.checkExpect(deque2.removeFromHead(), "abc");
+  }
+
+  void testMoveToHeadFrom(Tester t) {
+    init();
+    deque1.moveToHeadFrom(deque2, cde);
+    deque1.moveToHeadFrom(deque2, abc);
+    // the same nodes move, and both counts change
+    t.checkExpect(deque1.header.next, abc);
+    t.checkExpect(deque1.header.prev, cde);
+    t.checkExpect(abc.next, cde);
+    t.checkExpect(cde.prev, abc);
+    t.checkExpect(bcd.next, def);
+    t.checkExpect(def.prev, bcd);
+    t.checkExpect(deque1.size(), 2);
+    t.checkExpect(deque2.size(), 2);
+    t.checkExpect(deque2.size(), start.countNodes());
+
+    // from itself it just moves to the head, and the sentinel doesn't move
+    deque1.moveToHeadFrom(deque1, cde);
+    deque1.moveToHeadFrom(deque2, start);
+    t.checkExpect(deque1.header.next, cde);
+    t.checkExpect(deque1.size(), 2);
+    t.checkExpect(deque2.size(), 2);
+  }
+
+  void testNodePool(Tester t) {
+    Deque<String> pooled = new Deque<String>(2);
+    pooled.addAtTail("abc");
+    pooled.addAtTail("bcd");
+    pooled.addAtTail("cde");
+    ANode<String> first = pooled.header.next;
+    t.checkExpect(pooled.removeFromHead(), "abc");
+    t.checkExpect(pooled.freeCount, 1);
+    // the free node lets go of its item
+    t.checkExpect(first.dataOr("none"), null);
+
+    // the next add reuses the removed node instead of making a new one
+    pooled.addAtTail("def");
+    t.checkExpect(pooled.header.prev == first, true);
+    t.checkExpect(pooled.freeCount, 0);
+    t.checkExpect(pooled.size(), 3);
+
+    // only 2 removed nodes are kept
+    pooled.removeFromTail();
+    pooled.removeFromHead();
+    pooled.removeNode(pooled.header.next);
+    t.checkExpect(pooled.freeCount, 2);
+    t.checkExpect(pooled.size(), 0);
+    pooled.addAtHead("xyz");
+    pooled.addAtTail("efg");
+    pooled.addAtHead("wxy");
+    t.checkExpect(pooled.freeCount, 0);
+    t.checkExpect(pooled.size(), 3);
+    t.checkExpect(pooled.size(), pooled.header.countNodes());
+    t.checkExpect(pooled.stream().collect(Collectors.toList()),
+        new ArrayList<String>(Arrays.asList("wxy", "xyz", "efg")));
+
+    // a node removed twice is only taken out and kept once
+    ANode<String> middle = pooled.header.next.next;
+    pooled.removeNode(middle);
+    pooled.removeNode(middle);
+    t.checkExpect(pooled.freeCount, 1);
+    t.checkExpect(pooled.size(), 2);
+
+    // a deque without a pool keeps nothing
+    init();
+    deque2.removeFromHead();
+    t.checkExpect(deque2.freeCount, 0);
+    t.checkExpect(deque2.freeNodes, null);
+    t.checkConstructorExceptionType(IllegalArgumentException.class, "Deque", -1);
+  }
+
+  void testBulkAddAndDrain(Tester t) {
+    init();
+    deque2.addAllAtTail(Arrays.asList("efg", "fgh"));
+    t.checkExpect(deque2.size(), 6);
+    t.checkExpect(deque2.removeFromTail(), "fgh");
+
+    ArrayList<String> drained = new ArrayList<String>();
+    t.checkExpect(deque2.drainTo(drained, 2), 2);
+    t.checkExpect(drained, new ArrayList<String>(Arrays.asList("abc", "bcd")));
+    t.checkExpect(deque2.size(), 3);
+    // draining stops when the deque runs out
+    t.checkExpect(deque2.drainTo(drained, 10), 3);
+    t.checkExpect(drained.size(), 5);
+    t.checkExpect(drained.get(4), "efg");
+    t.checkExpect(deque2.size(), 0);
+    t.checkExpect(deque2.drainTo(drained, 10), 0);
+    t.checkException(new IllegalArgumentException("Cannot drain a negative number of items"),
+        deque2, "drainTo", drained, -1);
+  }
+
+  void testSplice(Tester t) {
+    init();
+    Deque<String> more = new Deque<String>();
+    more.addAllAtTail(Arrays.asList("xyz", "wxy"));
+    deque2.spliceAfter(bcd, more);
+    t.checkExpect(deque2.size(), 6);
+    t.checkExpect(deque2.size(), start.countNodes());
+    t.checkExpect(deque2.stream().collect(Collectors.toList()),
+        new ArrayList<String>(Arrays.asList("abc", "bcd", "xyz", "wxy", "cde", "def")));
+    t.checkExpect(more.size(), 0);
+    t.checkExpect(more.header.next, more.header);
+
+    // the emptied deque can be used again, and splicing an empty one changes nothing
+    more.addAtTail("efg");
+    deque2.appendAll(more);
+    deque2.appendAll(more);
+    t.checkExpect(deque2.removeFromTail(), "efg");
+    more.addAtTail("aaa");
+    deque2.spliceAfter(deque2.header, more);
+    t.checkExpect(deque2.removeFromHead(), "aaa");
+    t.checkExpect(deque2.size(), 6);
+    t.checkException(new IllegalArgumentException("Cannot splice a deque into itself"),
+        deque2, "appendAll", deque2);
+  }
+
+  void testSplit(Tester t) {
+    init();
+    Deque<String> rest = deque2.splitFrom(bcd);
+    t.checkExpect(deque2.size(), 1);
+    t.checkExpect(deque2.size(), start.countNodes());
+    t.checkExpect(rest.size(), 3);
+    t.checkExpect(rest.size(), rest.header.countNodes());
+    t.checkExpect(rest.stream().collect(Collectors.toList()),
+        new ArrayList<String>(Arrays.asList("bcd", "cde", "def")));
+    t.checkExpect(deque2.header.prev, abc);
+    t.checkExpect(abc.next, start);
+
+    // splitting near either end, at the head, and at the sentinel
+    t.checkExpect(rest.splitFrom(def).size(), 1);
+    t.checkExpect(rest.size(), 2);
+    Deque<String> all = rest.splitFrom(rest.header.next);
+    t.checkExpect(all.size(), 2);
+    t.checkExpect(rest.size(), 0);
+    t.checkExpect(all.splitFrom(all.header).size(), 0);
+    t.checkExpect(all.size(), 2);
+
+    // a split and an append put the list back together
+    deque2.appendAll(all);
+    t.checkExpect(deque2.stream().collect(Collectors.toList()),
+        new ArrayList<String>(Arrays.asList("abc", "bcd", "cde")));
+
+    // a long list is counted from whichever end is closer
+    Deque<Integer> numbers = new Deque<Integer>();
+    for (int i = 0; i < 1000; i++) {
+      numbers.addAtTail(i);
+    }
+    Deque<Integer> last = numbers.splitFrom(numbers.find(i -> i == 10));
+    t.checkExpect(last.size(), 990);
+    t.checkExpect(numbers.size(), 10);
+    t.checkExpect(last.header.countNodes(), 990);
+  }
+
+  void testIteration(Tester t) {
+    init();
+    ArrayList<String> seen = new ArrayList<String>();
+    for (String item : deque2) {
+      seen.add(item);
+    }
+    t.checkExpect(seen, new ArrayList<String>(Arrays.asList("abc", "bcd", "cde", "def")));
+    t.checkExpect(deque1.iterator().hasNext(), false);
+    t.checkExceptionType(NoSuchElementException.class, deque1.iterator(), "next");
+
+    t.checkExpect(deque3.stream().filter(s -> s.length() > 6).collect(Collectors.toList()),
+        new ArrayList<String>(Arrays.asList("chocolate")));
+    t.checkExpect(deque3.stream().count(), 5L);
+    t.checkExpect(deque3.spliterator().getExactSizeIfKnown(), 5L);
+
+    // the iterator can remove the node it just returned
+    Iterator<String> items = deque3.iterator();
+    t.checkExceptionType(IllegalStateException.class, items, "remove");
+    items.next();
+    items.next();
+    items.remove();
+    t.checkExceptionType(IllegalStateException.class, items, "remove");
+    t.checkExpect(items.next(), "butter");
+    t.checkExpect(deque3.size(), 4);
+    t.checkExpect(deque3.findData(s -> s.equals("flour")), null);
+  }
+
+  void testLongDeque(Tester t) {
+    // far too many nodes to count or search one stack frame per node
+    Deque<Integer> numbers = new Deque<Integer>();
+    for (int i = 0; i < 1000000; i++) {
+      numbers.addAtTail(i);
+    }
+    t.checkExpect(numbers.header.countNodes(), 1000000);
+    t.checkExpect(numbers.findData(n -> n == 999999), 999999);
+    t.checkExpect(numbers.find(n -> n < 0), numbers.header);
+    t.checkExpect(numbers.stream().mapToLong(n -> n).sum(), 499999500000L);
+  }
+
+  void testSizeTracking(Tester t) {
+    init();
+    // the nodes built in init were counted as they were linked in
+    t.checkExpect(start.count, 4);
+    t.checkExpect(deque3.header.numNodes(), deque3.header.countNodes());
+
+    // a node built straight into the middle of the list is counted too
+    Node<String> middle = new Node<String>("bbb", bcd, abc);
+    t.checkExpect(deque2.size(), 5);
+    t.checkExpect(deque2.size(), start.countNodes());
+
+    // and one built between two nodes with no sentinel isn't counted anywhere
+    Node<String> loose = new Node<String>("loose");
+    new Node<String>("x", loose, loose);
+    t.checkExpect(deque2.size(), 5);
+
+    deque2.addAtHead("aaa");
+    deque2.addAtTail("efg");
+    t.checkExpect(deque2.size(), 7);
+    deque2.removeFromHead();
+    deque2.removeFromTail();
+    t.checkExpect(deque2.size(), 5);
+    deque2.removeNode(middle);
+    deque2.removeNode(start);
+    t.checkExpect(deque2.size(), 4);
+    t.checkExpect(deque2.size(), start.countNodes());
+
+    // failing to remove from an empty list leaves the count alone
+    t.checkExceptionType(RuntimeException.class, deque1, "removeFromHead");
+    t.checkExpect(deque1.size(), 0);
+    while (deque2.size() > 0) {
+      deque2.removeFromTail();
+    }
+    t.checkExpect(start.countNodes(), 0);
   }
 
 }
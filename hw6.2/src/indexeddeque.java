@@ -0,0 +1,314 @@
+import tester.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.function.*;
+
+// represents a 2 way list where every item has a key, and no two items share one
+// a map from each key to its node is kept up to date on every add and remove, so finding
+// or removing an item by its key is O(1) instead of a walk through the list
+// an item's key must not change while it is in the list, and nodes should only be
+// added through this deque, since a Node built straight into the list isn't in the map
+class IndexedDeque<K, T> extends Deque<T> {
+  Function<T, K> keyOf;
+  HashMap<K, Node<T>> nodesByKey;
+
+  IndexedDeque(Function<T, K> keyOf) {
+    super();
+    this.keyOf = keyOf;
+    this.nodesByKey = new HashMap<K, Node<T>>();
+  }
+
+  // inserts value at the front right after the header
+  // throws if an item with the same key is already in the list
+  public void addAtHead(T value) {
+    K key = this.checkNewKey(value);
+    this.nodesByKey.put(key, this.header.addNodeToHead(value));
+  }
+
+  // inserts value at the end right before the header
+  // throws if an item with the same key is already in the list
+  public void addAtTail(T value) {
+    K key = this.checkNewKey(value);
+    this.nodesByKey.put(key, this.header.addNodeToTail(value));
+  }
+
+  // returns the key of the value, if no item in the list has it yet
+  K checkNewKey(T value) {
+    K key = this.keyOf.apply(value);
+    if (this.nodesByKey.containsKey(key)) {
+      throw new IllegalArgumentException("An item with key " + key
+          + " is already in the deque");
+    }
+    return key;
+  }
+
+  // removes the first node in the list and returns the item that has been removed
+  public T removeFromHead() {
+    T removed = super.removeFromHead();
+    this.nodesByKey.remove(this.keyOf.apply(removed));
+    return removed;
+  }
+
+  // removes the last node in the list and returns the item that has been removed
+  public T removeFromTail() {
+    T removed = super.removeFromTail();
+    this.nodesByKey.remove(this.keyOf.apply(removed));
+    return removed;
+  }
+
+  // EFFECT: removes the given node from the list and its key from the map
+  // does nothing if the node is the sentinel, has already been removed,
+  // or belongs to another list
+  void removeNode(ANode<T> node) {
+    if (!node.isSentinel()) {
+      K key = this.keyOf.apply(node.dataOr(null));
+      if (this.nodesByKey.get(key) == node) {
+        this.unlinkNode(node);
+      }
+    }
+  }
+
+  // EFFECT: removes the given node, which must be one of this list's nodes, and its key
+  // from the map
+  void unlinkNode(ANode<T> node) {
+    this.nodesByKey.remove(this.keyOf.apply(node.dataOr(null)));
+    super.unlinkNode(node);
+  }
+
+  // returns a new empty IndexedDeque with the same keys, for splitFrom
+  IndexedDeque<K, T> emptyLike() {
+    return new IndexedDeque<K, T>(this.keyOf);
+  }
+
+  // EFFECT: moves the given node and every node after it into a new IndexedDeque
+  // with the same keys, and returns it
+  @SuppressWarnings("unchecked")
+  IndexedDeque<K, T> splitFrom(ANode<T> node) {
+    return (IndexedDeque<K, T>) super.splitFrom(node);
+  }
+
+  // EFFECT: adds the keys of the nodes from first to last to the map, walking them,
+  // so splicing into an IndexedDeque is O(k) in the nodes moved rather than O(1)
+  // throws, leaving the map as it was, if one of their keys is already in this list or
+  // comes up twice among them
+  void nodesArriving(ANode<T> first, ANode<T> last) {
+    ANode<T> current = first;
+    while (true) {
+      K key = this.keyOf.apply(current.dataOr(null));
+      if (this.nodesByKey.containsKey(key)) {
+        this.forgetKeys(first, current.prev);
+        throw new IllegalArgumentException("An item with key " + key
+            + " is already in the deque");
+      }
+      this.nodesByKey.put(key, (Node<T>) current);
+      if (current == last) {
+        return;
+      }
+      current = current.next;
+    }
+  }
+
+  // EFFECT: takes the keys of the nodes from first to last out of the map
+  void nodesLeaving(ANode<T> first, ANode<T> last) {
+    this.forgetKeys(first, last);
+  }
+
+  // EFFECT: takes the keys of the nodes from first to last out of the map, where last
+  // may be the node just before first, for no nodes at all
+  void forgetKeys(ANode<T> first, ANode<T> last) {
+    ANode<T> current = first;
+    while (current != last.next) {
+      this.nodesByKey.remove(this.keyOf.apply(current.dataOr(null)));
+      current = current.next;
+    }
+  }
+
+  // returns the node of the item with the given key, or the header if there isn't one,
+  // like find does when nothing satisfies its predicate
+  ANode<T> findByKey(K key) {
+    Node<T> found = this.nodesByKey.get(key);
+    if (found == null) {
+      return this.header;
+    }
+    return found;
+  }
+
+  // is there an item with the given key in the list?
+  boolean containsKey(K key) {
+    return this.nodesByKey.containsKey(key);
+  }
+
+  // EFFECT: removes the item with the given key from the list
+  // returns whether there was one to remove
+  boolean removeByKey(K key) {
+    Node<T> found = this.nodesByKey.get(key);
+    if (found == null) {
+      return false;
+    }
+    this.removeNode(found);
+    return true;
+  }
+}
+
+class ExamplesIndexedDeque {
+  // represents a person with a unique id, to keep in a deque
+  class Person {
+    int id;
+    String name;
+
+    Person(int id, String name) {
+      this.id = id;
+      this.name = name;
+    }
+  }
+
+  IndexedDeque<Integer, Person> people;
+  Person ada;
+  Person bob;
+  Person cam;
+
+  void init() {
+    people = new IndexedDeque<Integer, Person>(p -> p.id);
+    ada = new Person(1, "ada");
+    bob = new Person(2, "bob");
+    cam = new Person(3, "cam");
+    people.addAtTail(ada);
+    people.addAtTail(bob);
+    people.addAtHead(cam);
+  }
+
+  void testFindByKey(Tester t) {
+    init();
+    t.checkExpect(people.size(), 3);
+    // the same node as a linear find gives back
+    t.checkExpect(people.findByKey(2), people.find(p -> p.name.equals("bob")));
+    t.checkExpect(people.findByKey(2).dataOr(null), bob);
+    t.checkExpect(people.findByKey(3), people.header.next);
+    t.checkExpect(people.findByKey(4), people.header);
+    t.checkExpect(people.containsKey(1), true);
+
+    t.checkException(new IllegalArgumentException("An item with key 1 is already in the deque"),
+        people, "addAtTail", new Person(1, "another ada"));
+    t.checkExpect(people.size(), 3);
+  }
+
+  void testRemoves(Tester t) {
+    init();
+    t.checkExpect(people.removeFromHead(), cam);
+    t.checkExpect(people.containsKey(3), false);
+    t.checkExpect(people.removeFromTail(), bob);
+    t.checkExpect(people.containsKey(2), false);
+    // a key that was removed can be used again
+    people.addAtTail(new Person(2, "bea"));
+    t.checkExpect(people.findByKey(2).dataOr(null).name, "bea");
+
+    t.checkExpect(people.removeByKey(1), true);
+    t.checkExpect(people.removeByKey(1), false);
+    t.checkExpect(people.size(), 1);
+    t.checkExpect(people.find(p -> p.id == 1), people.header);
+  }
+
+  void testBulkOperations(Tester t) {
+    init();
+    Person dee = new Person(4, "dee");
+    people.addAllAtTail(Arrays.asList(dee, new Person(5, "eve")));
+    t.checkExpect(people.findByKey(4).dataOr(null), dee);
+    t.checkExpect(people.size(), 5);
+
+    ArrayList<Person> drained = new ArrayList<Person>();
+    t.checkExpect(people.drainTo(drained, 2), 2);
+    t.checkExpect(drained.get(0), cam);
+    t.checkExpect(people.containsKey(3), false);
+    t.checkExpect(people.containsKey(1), false);
+    t.checkExpect(people.containsKey(2), true);
+
+  }
+
+  void testSpliceAndSplit(Tester t) {
+    init();
+    Person dee = new Person(4, "dee");
+    Person eve = new Person(5, "eve");
+    // splicing a plain deque in indexes its items
+    Deque<Person> others = new Deque<Person>();
+    others.addAtTail(dee);
+    others.addAtTail(eve);
+    people.appendAll(others);
+    t.checkExpect(people.size(), 5);
+    t.checkExpect(people.findByKey(5).dataOr(null), eve);
+    t.checkExpect(people.findByKey(4), people.header.prev.prev);
+
+    // splitting moves the keys to the new IndexedDeque
+    IndexedDeque<Integer, Person> rest = people.splitFrom(people.findByKey(2));
+    t.checkExpect(people.size(), 2);
+    t.checkExpect(people.containsKey(2), false);
+    t.checkExpect(people.containsKey(4), false);
+    t.checkExpect(people.containsKey(1), true);
+    t.checkExpect(rest.size(), 3);
+    t.checkExpect(rest.findByKey(2).dataOr(null), bob);
+    t.checkExpect(rest.removeByKey(5), true);
+    t.checkException(new IllegalArgumentException("An item with key 2 is already in the deque"),
+        rest, "addAtHead", new Person(2, "bea"));
+
+    // splicing an IndexedDeque into a plain deque leaves it empty, keys and all
+    Deque<Person> plain = new Deque<Person>();
+    plain.appendAll(rest);
+    t.checkExpect(rest.size(), 0);
+    t.checkExpect(rest.containsKey(2), false);
+    t.checkExpect(plain.size(), 2);
+    rest.addAtTail(bob);
+    t.checkExpect(rest.findByKey(2).dataOr(null), bob);
+
+    // a key that is already there, or twice in the run, changes nothing
+    Deque<Person> clashing = new Deque<Person>();
+    clashing.addAtTail(new Person(6, "fay"));
+    clashing.addAtTail(new Person(1, "another ada"));
+    t.checkException(new IllegalArgumentException("An item with key 1 is already in the deque"),
+        people, "appendAll", clashing);
+    Deque<Person> twice = new Deque<Person>();
+    twice.addAtTail(new Person(7, "gus"));
+    twice.addAtTail(new Person(7, "another gus"));
+    t.checkException(new IllegalArgumentException("An item with key 7 is already in the deque"),
+        people, "spliceAfter", people.header, twice);
+    t.checkExpect(people.size(), 2);
+    t.checkExpect(people.containsKey(6), false);
+    t.checkExpect(people.containsKey(7), false);
+    t.checkExpect(clashing.size(), 2);
+    t.checkExpect(twice.size(), 2);
+
+    // moving one node over keeps both maps right too
+    people.moveToHeadFrom(clashing, clashing.header.next);
+    t.checkExpect(people.findByKey(6).dataOr(null).name, "fay");
+    t.checkException(new IllegalArgumentException("An item with key 1 is already in the deque"),
+        people, "moveToHeadFrom", clashing, clashing.header.next);
+    t.checkExpect(clashing.size(), 1);
+    rest.moveToHeadFrom(people, people.findByKey(6));
+    t.checkExpect(people.containsKey(6), false);
+    t.checkExpect(rest.findByKey(6).dataOr(null).name, "fay");
+  }
+
+  void testRemoveNode(Tester t) {
+    init();
+    ANode<Person> bobNode = people.findByKey(2);
+    people.removeNode(bobNode);
+    t.checkExpect(people.containsKey(2), false);
+    t.checkExpect(people.size(), 2);
+
+    // nodes of another list, the sentinel, and nodes already removed are left alone
+    Deque<Person> other = new Deque<Person>();
+    other.addAtTail(ada);
+    people.removeNode(other.header.next);
+    people.removeNode(people.header);
+    people.removeNode(bobNode);
+    t.checkExpect(people.size(), 2);
+    t.checkExpect(people.containsKey(1), true);
+
+    // removing through the iterator keeps the map up to date too
+    Iterator<Person> iterator = people.iterator();
+    iterator.next();
+    iterator.remove();
+    t.checkExpect(people.containsKey(3), false);
+    t.checkExpect(people.size(), 1);
+  }
+}
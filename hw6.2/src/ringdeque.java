@@ -0,0 +1,222 @@
+import tester.*;
+import java.util.function.*;
+
+// represents a 2 way list kept in a circular array instead of linked nodes
+// adding an item only allocates when the array is full, at which point it doubles,
+// and the items sit next to each other in memory
+class RingDeque<T> implements IDeque<T> {
+  // the items, with the first one at head and the rest after it, wrapping around
+  // the array's length is always a power of 2, so wrapping is a mask
+  Object[] items;
+  int head;
+  int count;
+
+  RingDeque() {
+    this(16);
+  }
+
+  RingDeque(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Capacity must be at least 1");
+    }
+    else if (capacity > 1 << 30) {
+      // the next power of 2 wouldn't fit in an int
+      throw new IllegalArgumentException("Capacity cannot be more than " + (1 << 30));
+    }
+    this.items = new Object[Integer.highestOneBit(Math.max(1, capacity - 1)) << 1];
+    this.head = 0;
+    this.count = 0;
+  }
+
+  // returns the number of items in the list
+  public int size() {
+    return this.count;
+  }
+
+  // inserts value at the front, just before the current head
+  public void addAtHead(T value) {
+    this.ensureRoom();
+    this.head = (this.head - 1) & (this.items.length - 1);
+    this.items[this.head] = value;
+    this.count = this.count + 1;
+  }
+
+  // inserts value at the end, just after the current tail
+  public void addAtTail(T value) {
+    this.ensureRoom();
+    this.items[this.slot(this.count)] = value;
+    this.count = this.count + 1;
+  }
+
+  // removes the first item in the list and returns it
+  public T removeFromHead() {
+    if (this.count == 0) {
+      throw new RuntimeException("Cannot remove from an empty list");
+    }
+    T removed = this.get(0);
+    // the slot is cleared so the array doesn't keep the item from being collected
+    this.items[this.head] = null;
+    this.head = (this.head + 1) & (this.items.length - 1);
+    this.count = this.count - 1;
+    return removed;
+  }
+
+  // removes the last item in the list and returns it
+  public T removeFromTail() {
+    if (this.count == 0) {
+      throw new RuntimeException("Cannot remove from an empty list");
+    }
+    T removed = this.get(this.count - 1);
+    this.items[this.slot(this.count - 1)] = null;
+    this.count = this.count - 1;
+    return removed;
+  }
+
+  // returns the first item that satisfies the predicate, or null if none does
+  public T findData(Predicate<T> pred) {
+    for (int i = 0; i < this.count; i++) {
+      T item = this.get(i);
+      if (pred.test(item)) {
+        return item;
+      }
+    }
+    return null;
+  }
+
+  // returns the item at the given position from the head
+  @SuppressWarnings("unchecked")
+  T get(int index) {
+    if (index < 0 || index >= this.count) {
+      throw new IndexOutOfBoundsException("No item at index " + index);
+    }
+    return (T) this.items[this.slot(index)];
+  }
+
+  // returns the slot of the array holding the item at the given position from the head
+  int slot(int index) {
+    return (this.head + index) & (this.items.length - 1);
+  }
+
+  // EFFECT: doubles the array if it is full, moving the items to the front of the new one
+  void ensureRoom() {
+    if (this.count < this.items.length) {
+      return;
+    }
+    if (this.items.length >= 1 << 30) {
+      throw new IllegalStateException("RingDeque cannot grow any larger");
+    }
+    Object[] larger = new Object[this.items.length * 2];
+    int firstPart = this.items.length - this.head;
+    System.arraycopy(this.items, this.head, larger, 0, firstPart);
+    System.arraycopy(this.items, 0, larger, firstPart, this.head);
+    this.items = larger;
+    this.head = 0;
+  }
+}
+
+class ExamplesRingDeque {
+  RingDeque<String> ring;
+
+  void init() {
+    ring = new RingDeque<String>(4);
+    ring.addAtTail("abc");
+    ring.addAtTail("bcd");
+    ring.addAtTail("cde");
+    ring.addAtTail("def");
+  }
+
+  void testConstructor(Tester t) {
+    t.checkExpect(new RingDeque<String>().size(), 0);
+    t.checkExpect(new RingDeque<String>().items.length, 16);
+    t.checkExpect(new RingDeque<String>(5).items.length, 8);
+    t.checkExpect(new RingDeque<String>(1).items.length, 2);
+    t.checkConstructorExceptionType(IllegalArgumentException.class, "RingDeque", 0);
+    t.checkConstructorException(
+        new IllegalArgumentException("Capacity cannot be more than 1073741824"),
+        "RingDeque", (1 << 30) + 1);
+    t.checkConstructorException(
+        new IllegalArgumentException("Capacity cannot be more than 1073741824"),
+        "RingDeque", Integer.MAX_VALUE);
+  }
+
+  void testAddsAndRemoves(Tester t) {
+    init();
+    t.checkExpect(ring.size(), 4);
+    t.checkExpect(ring.items.length, 4);
+    // adding at the head wraps around to the end of the array
+    ring.addAtHead("zab");
+    t.checkExpect(ring.items.length, 8);
+    t.checkExpect(ring.get(0), "zab");
+    t.checkExpect(ring.get(4), "def");
+    t.checkExpect(ring.size(), 5);
+
+    t.checkExpect(ring.removeFromHead(), "zab");
+    t.checkExpect(ring.removeFromTail(), "def");
+    t.checkExpect(ring.removeFromTail(), "cde");
+    t.checkExpect(ring.size(), 2);
+    t.checkExpect(ring.removeFromHead(), "abc");
+    t.checkExpect(ring.removeFromHead(), "bcd");
+    t.checkExpect(ring.size(), 0);
+    t.checkExceptionType(RuntimeException.class, ring, "removeFromHead");
+    t.checkExceptionType(RuntimeException.class, ring, "removeFromTail");
+    t.checkException(new IndexOutOfBoundsException("No item at index 0"), ring, "get", 0);
+  }
+
+  void testWrapAround(Tester t) {
+    RingDeque<Integer> numbers = new RingDeque<Integer>(4);
+    numbers.addAtTail(0);
+    numbers.addAtTail(1);
+    numbers.addAtTail(2);
+    // going round the array many times, with the head never staying in one place
+    for (int i = 3; i < 103; i++) {
+      numbers.addAtTail(i);
+      t.checkExpect(numbers.removeFromHead(), i - 3);
+    }
+    t.checkExpect(numbers.size(), 3);
+    t.checkExpect(numbers.items.length, 4);
+    t.checkExpect(numbers.get(0), 100);
+
+    // growing while wrapped keeps the order
+    for (int i = 0; i < 50; i++) {
+      numbers.addAtHead(-i);
+    }
+    t.checkExpect(numbers.items.length, 64);
+    t.checkExpect(numbers.size(), 53);
+    t.checkExpect(numbers.get(0), -49);
+    t.checkExpect(numbers.get(49), 0);
+    t.checkExpect(numbers.get(50), 100);
+    t.checkExpect(numbers.removeFromTail(), 102);
+  }
+
+  // checks that the deque, holding abc, bcd, cde and def, behaves like a 2 way list
+  void checkDeque(Tester t, IDeque<String> deque) {
+    class BeginsWithC implements Predicate<String> {
+      public boolean test(String s) {
+        return s.substring(0, 1).equals("c");
+      }
+    }
+
+    t.checkExpect(deque.size(), 4);
+    t.checkExpect(deque.findData(new BeginsWithC()), "cde");
+    t.checkExpect(deque.findData(s -> s.equals("xyz")), null);
+    deque.addAtHead("xyz");
+    deque.addAtTail("efg");
+    t.checkExpect(deque.size(), 6);
+    t.checkExpect(deque.removeFromHead(), "xyz");
+    t.checkExpect(deque.removeFromTail(), "efg");
+    t.checkExpect(deque.removeFromHead(), "abc");
+    t.checkExpect(deque.removeFromTail(), "def");
+    t.checkExpect(deque.size(), 2);
+  }
+
+  void testSameAsDeque(Tester t) {
+    init();
+    Deque<String> linked = new Deque<String>();
+    linked.addAtTail("abc");
+    linked.addAtTail("bcd");
+    linked.addAtTail("cde");
+    linked.addAtTail("def");
+    this.checkDeque(t, linked);
+    this.checkDeque(t, ring);
+  }
+}
@@ -0,0 +1,464 @@
+import tester.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+// represents a node in an adaptive Huffman tree
+// unlike the ATree used by Huffman, the tree changes shape as letters are seen,
+// so every node knows its parent and its place in the ordering of the tree
+class AdaptiveNode {
+  // the letter of a leaf, or INTERNAL for a node with children
+  int letter;
+  int weight;
+  AdaptiveNode parent;
+  AdaptiveNode left;
+  AdaptiveNode right;
+  // this node's position in the tree's order, 0 being the root
+  int index;
+
+  static final int INTERNAL = -1;
+
+  AdaptiveNode(int letter, AdaptiveNode parent, int index) {
+    this.letter = letter;
+    this.weight = 0;
+    this.parent = parent;
+    this.left = null;
+    this.right = null;
+    this.index = index;
+  }
+
+  // Is this a leaf node?
+  boolean isLeaf() {
+    return this.left == null;
+  }
+}
+
+// represents the tree that an adaptive (FGK) Huffman encoder and decoder share
+// both sides start with only the NYT ("not yet transmitted") leaf and update the tree
+// the same way after every letter, so they stay in sync without sending a header
+// a letter seen for the first time is sent as the code of the NYT leaf followed by its
+// 16 bits, and from then on as the code of its own leaf
+// once the letters seen add up to the weight limit, every weight is halved and the tree
+// rebuilt, so a stream that never ends can't overflow the weights, and old letters count
+// for less than new ones; both sides rescale at the same letter, so they stay in sync
+class AdaptiveHuffman {
+  AdaptiveNode root;
+  // the leaf standing for every letter not seen yet
+  AdaptiveNode nyt;
+  // every node, ordered so that weights never increase along the list and
+  // siblings are next to each other (the sibling property)
+  ArrayList<AdaptiveNode> order;
+  // the leaf of every letter seen so far, indexed by the letter
+  AdaptiveNode[] leaves;
+  // the path to a leaf while it is being written, from the leaf up
+  boolean[] path;
+  // the root's weight at which the weights are halved
+  // no weight halves below 1, so it should be well above the number of different
+  // letters, or the tree is rebuilt after nearly every letter
+  int weightLimit;
+
+  // the default weight limit, which keeps every weight well inside an int
+  static final int DEFAULT_WEIGHT_LIMIT = 1 << 30;
+
+  AdaptiveHuffman() {
+    this(DEFAULT_WEIGHT_LIMIT);
+  }
+
+  AdaptiveHuffman(int weightLimit) {
+    if (weightLimit < 2 || weightLimit > DEFAULT_WEIGHT_LIMIT) {
+      throw new IllegalArgumentException("Weight limit must be from 2 to " 
+          + DEFAULT_WEIGHT_LIMIT);
+    }
+    this.weightLimit = weightLimit;
+    this.root = new AdaptiveNode(AdaptiveNode.INTERNAL, null, 0);
+    this.nyt = this.root;
+    this.order = new ArrayList<AdaptiveNode>();
+    this.order.add(this.root);
+    this.leaves = new AdaptiveNode[Character.MAX_VALUE + 1];
+    this.path = new boolean[16];
+  }
+
+  // EFFECT: writes the code for the letter onto the bits
+  void writeCode(char letter, BitBuffer bits) {
+    AdaptiveNode leaf = this.leaves[letter];
+    if (leaf == null) {
+      this.writePath(this.nyt, bits);
+      bits.append(letter, 16);
+    }
+    else {
+      this.writePath(leaf, bits);
+    }
+  }
+
+  // EFFECT: writes the path from the root to the node onto the bits
+  void writePath(AdaptiveNode node, BitBuffer bits) {
+    int length = 0;
+    while (node.parent != null) {
+      if (length == this.path.length) {
+        boolean[] longer = new boolean[length * 2];
+        System.arraycopy(this.path, 0, longer, 0, length);
+        this.path = longer;
+      }
+      this.path[length] = node.parent.right == node;
+      length = length + 1;
+      node = node.parent;
+    }
+    for (int i = length - 1; i >= 0; i--) {
+      bits.add(this.path[i]);
+    }
+  }
+
+  // EFFECT: counts one more of the letter, adding a leaf for it if it is new,
+  // and moves nodes around so the tree stays a Huffman tree for the counts so far
+  void update(char letter) {
+    AdaptiveNode leaf = this.leaves[letter];
+    if (leaf == null) {
+      // the NYT leaf becomes a node with the new letter on its right
+      // and a new NYT leaf on its left
+      AdaptiveNode node = this.nyt;
+      leaf = new AdaptiveNode(letter, node, this.order.size());
+      this.order.add(leaf);
+      AdaptiveNode newNyt = new AdaptiveNode(AdaptiveNode.INTERNAL, node, this.order.size());
+      this.order.add(newNyt);
+      node.right = leaf;
+      node.left = newNyt;
+      this.nyt = newNyt;
+      this.leaves[letter] = leaf;
+    }
+    this.increment(leaf);
+    if (this.root.weight >= this.weightLimit) {
+      this.rescale();
+    }
+  }
+
+  // EFFECT: halves the weight of every letter's leaf, rounding up so none reaches 0,
+  // and rebuilds the tree for the halved weights
+  // the tree is built the way Huffman builds one, joining the two lightest trees each
+  // time; the lightest tree never gets lighter as trees are joined, so listing each
+  // join's two trees, heavier first, from the last join to the first gives an order
+  // with the sibling property
+  // among trees that weigh the same, joined ones are taken before leaves, so the node
+  // above the NYT leaf ends up just before the NYT leaf's sibling, as it always is
+  // between rescales, and increment can go up from that sibling without trading it
+  // past its parent; other ties go to the node earlier in the old order, or joined
+  // earlier, so the encoder and decoder build the same tree
+  void rescale() {
+    PriorityQueue<AdaptiveNode> lightest = new PriorityQueue<AdaptiveNode>(
+        Comparator.comparingInt((AdaptiveNode node) -> node.weight)
+            .thenComparing(AdaptiveNode::isLeaf)
+            .thenComparingInt(node -> node.index));
+    for (AdaptiveNode node : this.order) {
+      if (node.isLeaf()) {
+        node.weight = (node.weight + 1) / 2;
+        lightest.add(node);
+      }
+    }
+
+    ArrayList<AdaptiveNode> joined = new ArrayList<AdaptiveNode>();
+    int nextIndex = this.order.size();
+    while (lightest.size() > 1) {
+      AdaptiveNode lighter = lightest.poll();
+      AdaptiveNode heavier = lightest.poll();
+      AdaptiveNode node = new AdaptiveNode(AdaptiveNode.INTERNAL, null, nextIndex);
+      nextIndex = nextIndex + 1;
+      node.left = lighter;
+      node.right = heavier;
+      node.weight = lighter.weight + heavier.weight;
+      lighter.parent = node;
+      heavier.parent = node;
+      joined.add(lighter);
+      joined.add(heavier);
+      lightest.add(node);
+    }
+
+    this.root = lightest.poll();
+    this.root.parent = null;
+    this.root.index = 0;
+    this.order.clear();
+    this.order.add(this.root);
+    for (int i = joined.size() - 1; i >= 0; i--) {
+      AdaptiveNode node = joined.get(i);
+      node.index = this.order.size();
+      this.order.add(node);
+    }
+  }
+
+  // EFFECT: adds one to the weight of the node and every node above it
+  // before each node goes up, it trades places with the first node in the order that
+  // has the same weight, so the order still has no weight increasing along it
+  void increment(AdaptiveNode node) {
+    while (node != null) {
+      AdaptiveNode leader = this.order.get(this.firstWithWeight(node.weight, node.index));
+      if (leader != node && leader != node.parent) {
+        this.swap(node, leader);
+      }
+      node.weight = node.weight + 1;
+      node = node.parent;
+    }
+  }
+
+  // returns the first index in the order whose node has the given weight
+  // the node at last has that weight, and weights never increase along the order,
+  // so it is found by a binary search before last
+  int firstWithWeight(int weight, int last) {
+    int low = 0;
+    int high = last;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (this.order.get(middle).weight > weight) {
+        low = middle + 1;
+      }
+      else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  // EFFECT: swaps the places of two nodes, along with everything under them,
+  // in the tree and in the order
+  void swap(AdaptiveNode a, AdaptiveNode b) {
+    AdaptiveNode aParent = a.parent;
+    AdaptiveNode bParent = b.parent;
+    boolean aLeft = aParent.left == a;
+    boolean bLeft = bParent.left == b;
+    if (aLeft) {
+      aParent.left = b;
+    }
+    else {
+      aParent.right = b;
+    }
+    if (bLeft) {
+      bParent.left = a;
+    }
+    else {
+      bParent.right = a;
+    }
+    a.parent = bParent;
+    b.parent = aParent;
+
+    int aIndex = a.index;
+    a.index = b.index;
+    b.index = aIndex;
+    this.order.set(a.index, a);
+    this.order.set(b.index, b);
+  }
+
+  // returns whether the tree has the sibling property: weights never increase along
+  // the order, siblings are next to each other, and every node weighs as much as
+  // its children together
+  boolean hasSiblingProperty() {
+    for (int i = 0; i < this.order.size(); i++) {
+      AdaptiveNode node = this.order.get(i);
+      if (node.index != i || i > 0 && this.order.get(i - 1).weight < node.weight) {
+        return false;
+      }
+      if (!node.isLeaf() && (node.weight != node.left.weight + node.right.weight
+          || node.right.index + 1 != node.left.index)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
+
+// encodes messages with an adaptive Huffman tree, one message after another
+// the tree carries on from message to message, so they must be decoded in the same order
+class AdaptiveEncoder {
+  AdaptiveHuffman model;
+
+  AdaptiveEncoder() {
+    this.model = new AdaptiveHuffman();
+  }
+
+  // the decoder must be given the same weight limit
+  AdaptiveEncoder(int weightLimit) {
+    this.model = new AdaptiveHuffman(weightLimit);
+  }
+
+  // encodes the message into a packed buffer of bits
+  BitBuffer encode(String message) {
+    BitBuffer encodedMessage = new BitBuffer();
+    this.encodeInto(message, encodedMessage);
+    return encodedMessage;
+  }
+
+  // EFFECT: encodes the message onto the end of the given buffer
+  void encodeInto(String message, BitBuffer encodedMessage) {
+    for (int i = 0; i < message.length(); i++) {
+      char letter = message.charAt(i);
+      this.model.writeCode(letter, encodedMessage);
+      this.model.update(letter);
+    }
+  }
+}
+
+// decodes messages made by an AdaptiveEncoder, in the order they were encoded
+class AdaptiveDecoder {
+  AdaptiveHuffman model;
+
+  AdaptiveDecoder() {
+    this.model = new AdaptiveHuffman();
+  }
+
+  // decodes what an AdaptiveEncoder with the same weight limit encoded
+  AdaptiveDecoder(int weightLimit) {
+    this.model = new AdaptiveHuffman(weightLimit);
+  }
+
+  // decodes a packed buffer of bits into a message
+  String decode(BitBuffer encodedMessage) {
+    StringBuilder decodedMessage = new StringBuilder();
+    this.decodeInto(encodedMessage, decodedMessage);
+    return decodedMessage.toString();
+  }
+
+  // EFFECT: decodes a packed buffer of bits onto the end of the given builder
+  // like Huffman.decode, adds "?" and stops if the bits end in the middle of a code
+  void decodeInto(BitBuffer encodedMessage, StringBuilder decodedMessage) {
+    int index = 0;
+    while (index < encodedMessage.size()) {
+      AdaptiveNode node = this.model.root;
+      while (!node.isLeaf() && index < encodedMessage.size()) {
+        if (encodedMessage.get(index)) {
+          node = node.right;
+        }
+        else {
+          node = node.left;
+        }
+        index = index + 1;
+      }
+      if (!node.isLeaf()) {
+        decodedMessage.append("?");
+        return;
+      }
+
+      char letter;
+      if (node == this.model.nyt) {
+        if (index + 16 > encodedMessage.size()) {
+          decodedMessage.append("?");
+          return;
+        }
+        letter = (char) encodedMessage.peek(index, 16);
+        index = index + 16;
+      }
+      else {
+        letter = (char) node.letter;
+      }
+      decodedMessage.append(letter);
+      this.model.update(letter);
+    }
+  }
+}
+
+class ExamplesAdaptiveHuffman {
+  void testFirstLetters(Tester t) {
+    AdaptiveEncoder encoder = new AdaptiveEncoder();
+    // the first letter is just its 16 bits
+    BitBuffer a = encoder.encode("a");
+    t.checkExpect(a.size(), 16);
+    t.checkExpect(a.peek(0, 16), (long) 'a');
+    // the second time, a is the right leaf under the root
+    ArrayList<Boolean> right = new ArrayList<Boolean>();
+    right.add(true);
+    t.checkExpect(encoder.encode("a").toBooleans(), right);
+    // a new letter is the path to NYT (0) followed by its 16 bits
+    BitBuffer b = encoder.encode("b");
+    t.checkExpect(b.size(), 17);
+    t.checkExpect(b.get(0), false);
+    t.checkExpect(b.peek(1, 16), (long) 'b');
+    t.checkExpect(encoder.model.hasSiblingProperty(), true);
+  }
+
+  void testRoundTrip(Tester t) {
+    String message = "abracadabra, alakazam! \u00e9t\u00e9 \ud83d\ude00";
+    BitBuffer encoded = new AdaptiveEncoder().encode(message);
+    t.checkExpect(new AdaptiveDecoder().decode(encoded), message);
+    t.checkExpect(new AdaptiveDecoder().decode(new BitBuffer()), "");
+
+    // the encoder and decoder stay in sync from message to message
+    AdaptiveEncoder encoder = new AdaptiveEncoder();
+    AdaptiveDecoder decoder = new AdaptiveDecoder();
+    t.checkExpect(decoder.decode(encoder.encode("mississippi")), "mississippi");
+    t.checkExpect(decoder.decode(encoder.encode("")), "");
+    t.checkExpect(decoder.decode(encoder.encode("missing pips")), "missing pips");
+    t.checkExpect(decoder.model.hasSiblingProperty(), true);
+    t.checkExpect(encoder.model.order.size(), decoder.model.order.size());
+  }
+
+  void testTruncated(Tester t) {
+    BitBuffer encoded = new AdaptiveEncoder().encode("ab");
+    ArrayList<Boolean> bits = encoded.toBooleans();
+    bits.remove(bits.size() - 1);
+    t.checkExpect(new AdaptiveDecoder().decode(new BitBuffer(bits)), "a?");
+
+    BitBuffer again = new AdaptiveEncoder().encode("aab");
+    ArrayList<Boolean> pathOnly = new ArrayList<Boolean>(again.toBooleans().subList(0, 17));
+    pathOnly.add(false);
+    t.checkExpect(new AdaptiveDecoder().decode(new BitBuffer(pathOnly)), "aa?");
+  }
+
+  void testAdapts(Tester t) {
+    StringBuilder message = new StringBuilder();
+    for (int i = 0; i < 20000; i++) {
+      message.append(i % 10 < 7 ? 'e' : (char) ('a' + i % 5));
+    }
+    AdaptiveEncoder encoder = new AdaptiveEncoder();
+    BitBuffer encoded = encoder.encode(message.toString());
+    t.checkExpect(encoder.model.hasSiblingProperty(), true);
+    // mostly e, so it takes far fewer than 2 bits a letter once the tree has adapted
+    t.checkExpect(encoded.size() < message.length() * 2, true);
+    t.checkExpect(new AdaptiveDecoder().decode(encoded), message.toString());
+  }
+
+  void testRescale(Tester t) {
+    AdaptiveHuffman model = new AdaptiveHuffman(8);
+    for (char letter : "aaaab".toCharArray()) {
+      model.update(letter);
+    }
+    t.checkExpect(model.root.weight, 5);
+    // the 8th letter takes the root to the limit, so every weight is halved
+    model.update('c');
+    model.update('a');
+    model.update('a');
+    t.checkExpect(model.root.weight, 5);
+    t.checkExpect(model.leaves['a'].weight, 3);
+    t.checkExpect(model.leaves['b'].weight, 1);
+    t.checkExpect(model.leaves['c'].weight, 1);
+    t.checkExpect(model.nyt.weight, 0);
+    t.checkExpect(model.order.get(model.order.size() - 1), model.nyt);
+    t.checkExpect(model.hasSiblingProperty(), true);
+    t.checkExpect(model.root.right, model.leaves['a']);
+
+    t.checkConstructorException(new IllegalArgumentException(
+        "Weight limit must be from 2 to 1073741824"), "AdaptiveHuffman", 1);
+  }
+
+  void testLongStream(Tester t) {
+    // a small limit makes the weights halve many times over the stream, and the letters
+    // that are common change partway through
+    AdaptiveEncoder encoder = new AdaptiveEncoder(500);
+    AdaptiveDecoder decoder = new AdaptiveDecoder(500);
+    boolean inSync = true;
+    for (int part = 0; part < 40; part++) {
+      StringBuilder message = new StringBuilder();
+      for (int i = 0; i < 1000; i++) {
+        if (part < 20) {
+          message.append(i % 4 == 0 ? (char) ('a' + i % 23) : 'e');
+        }
+        else {
+          message.append(i % 3 == 0 ? 'z' : (char) ('\u00e0' + i % 7));
+        }
+      }
+      String text = message.toString();
+      inSync = inSync && decoder.decode(encoder.encode(text)).equals(text)
+          && encoder.model.hasSiblingProperty() && decoder.model.hasSiblingProperty();
+    }
+    t.checkExpect(inSync, true);
+    t.checkExpect(encoder.model.root.weight < 500, true);
+    t.checkExpect(decoder.model.order.size(), encoder.model.order.size());
+
+    // after the change, z is heavier than e, which hasn't been seen for a while
+    t.checkExpect(encoder.model.leaves['z'].weight > encoder.model.leaves['e'].weight, true);
+  }
+}
@@ -1,9 +1,31 @@
 import tester.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+// a Huffman never changes once it is built: it keeps its own copies of the lists it is
+// given, builds its tree and code table in the constructor, and from then on only reads
+// them, so one Huffman can encode and decode on many threads at once without locking
+// its fields are final, so every thread sees them fully built
 class Huffman {
-  ArrayList<String> alphabet;
-  ArrayList<Integer> frequencies;
+  final ArrayList<String> alphabet;
+  final ArrayList<Integer> frequencies;
+  // the tree for this alphabet, built once when the Huffman is constructed
+  final ATree tree;
+  // the id of each letter, which is its position in the alphabet
+  final SymbolTable symbols;
+  // the code for each letter by its id, read off the tree once so that encoding
+  // a letter is a single lookup instead of a search through the tree
+  final BitBuffer[] codesById;
+  // the same tree laid out in arrays, which is what decoding walks
+  final FlatTree flat;
 
   Huffman(ArrayList<String> alphabet, ArrayList<Integer> frequencies) {
     if (alphabet.size() != frequencies.size()) {
@@ -14,86 +36,585 @@ class Huffman {
       throw new IllegalArgumentException("Alphabet must be more than 2");
     }
     
-    this.alphabet = alphabet;
-    this.frequencies = frequencies;
+    this.alphabet = new ArrayList<String>(alphabet);
+    this.frequencies = new ArrayList<Integer>(frequencies);
+    this.tree = new ArrayListUtils().buildTree(this.alphabet, this.frequencies);
+    this.symbols = new SymbolTable(alphabet.size());
+    this.codesById = new BitBuffer[alphabet.size()];
+    this.tree.addCodes(new BitBuffer(), this.symbols, this.codesById);
+    this.flat = new FlatTree(this.tree);
+  }
+
+  // makes the Huffman for a canonical code, using only the code lengths
+  // the frequencies aren't known from the lengths, so they are all 0
+  Huffman(CanonicalCode code) {
+    this.alphabet = new ArrayList<String>(code.alphabet);
+    this.frequencies = new ArrayList<Integer>();
+    for (int i = 0; i < code.alphabet.size(); i++) {
+      this.frequencies.add(0);
+    }
+    this.tree = code.toTree();
+    this.symbols = new SymbolTable(code.alphabet.size());
+    this.codesById = new BitBuffer[code.alphabet.size()];
+    this.tree.addCodes(new BitBuffer(), this.symbols, this.codesById);
+    this.flat = new FlatTree(this.tree);
+  }
+
+  // returns a copy of the code for the letter, or null if it is not part of the language
+  // it is a copy so that changing it can't change what this Huffman encodes
+  public BitBuffer codeOf(String letter) {
+    int id = this.symbols.idOf(letter);
+    if (id < 0) {
+      return null;
+    }
+    return new BitBuffer(this.codesById[id]);
   }
 
   // encodes the message into a list of booleans
   public ArrayList<Boolean> encode(String message) {
-    // create a list of leaves to represent each letter in the alphabet and their frequencies
-    ArrayList<ATree> leaves = new ArrayList<>();
-    for (int i = 0; i < alphabet.size(); i++) {
-      leaves.add(new Leaf(alphabet.get(i), frequencies.get(i)));
-    }
+    return this.encodeBits(message).toBooleans();
+  }
 
-    // sort the leaves into a tree
-    ATree leavesToTree = new ArrayListUtils().sort(leaves);
+  // encodes the message into a packed buffer of bits
+  public BitBuffer encodeBits(String message) {
+    BitBuffer encodedMessage = new BitBuffer();
+    this.encodeInto(message, 0, message.length(), encodedMessage);
+    return encodedMessage;
+  }
 
-    // encode the message
-    ArrayList<Boolean> encodedMessage = new ArrayList<Boolean>();
-    for (int i = 0; i < message.length(); i++) {
-      String letter = message.substring(i, i + 1);
-      encodedMessage = new ArrayListUtils().addCode(encodedMessage, letter, leavesToTree);
+  // EFFECT: encodes the letters of the message from start to end onto the given buffer
+  // the message is read a code point at a time, so letters outside the BMP (which take
+  // two chars) work, and nothing is allocated per letter
+  public void encodeInto(String message, int start, int end, BitBuffer encodedMessage) {
+    int i = start;
+    while (i < end) {
+      int width = this.symbols.widthAt(message, i, end);
+      int id = this.symbols.idAt(message, i, width);
+      if (id < 0) {
+        throw new IllegalArgumentException("Tried to encode " +  
+            message.substring(i, i + width) + " but that is not part of the language.");
+      }
+      encodedMessage.append(this.codesById[id]);
+      i = i + width;
+    }
+  }
+
+  // encodes letters given by their ids, which lets letters longer than one code point
+  // (like whole words) be encoded
+  public BitBuffer encodeIds(int[] ids) {
+    BitBuffer encodedMessage = new BitBuffer();
+    for (int id : ids) {
+      if (id < 0 || id >= this.codesById.length || this.codesById[id] == null) {
+        throw new IllegalArgumentException("Tried to encode id " + id 
+            + " but that is not part of the language.");
+      }
+      encodedMessage.append(this.codesById[id]);
     }
     return encodedMessage;
   }
   
   // decodes a list of booleans into a message
   public String decode(ArrayList<Boolean> encodedMessage) {
-    // If the encoded message is empty, return an empty string
-    if (encodedMessage.isEmpty()) {
-      return "";
-    }
-    
-    // create a list of leaves to represent each letter in the alphabet and their frequencies
-    ArrayList<ATree> leaves = new ArrayList<>();
-    for (int i = 0; i < alphabet.size(); i++) {
-      leaves.add(new Leaf(alphabet.get(i), frequencies.get(i)));
+    return this.decode(new BitBuffer(encodedMessage));
+  }
+
+  // decodes a packed buffer of bits into a message
+  public String decode(BitBuffer encodedMessage) {
+    // every code is at least one bit, so there are at most as many letters as bits
+    StringBuilder decodedMessage = new StringBuilder(
+        Math.min(encodedMessage.size(), 1 << 16));
+    this.decodeInto(encodedMessage, decodedMessage);
+    return decodedMessage.toString();
+  }
+
+  // EFFECT: decodes a packed buffer of bits onto the end of the given builder
+  // the builder can be reused between messages so decoding doesn't copy the message so far
+  public void decodeInto(BitBuffer encodedMessage, StringBuilder decodedMessage) {
+    this.decodeInto(encodedMessage, 0, encodedMessage.size(), decodedMessage);
+  }
+
+  // EFFECT: decodes the bits from start to end onto the end of the given builder
+  // throws if start and end aren't a range of the buffer's bits
+  public void decodeInto(BitBuffer encodedMessage, int start, int end, 
+      StringBuilder decodedMessage) {
+    this.checkRange(encodedMessage, start, end);
+    this.flat.decodeInto(encodedMessage, start, end, decodedMessage);
+  }
+
+  // throws if start and end aren't a range of the buffer's bits, since the words past
+  // its size may still hold bits that would decode as letters
+  void checkRange(BitBuffer encodedMessage, int start, int end) {
+    if (start < 0 || start > end || end > encodedMessage.size()) {
+      throw new IndexOutOfBoundsException("No bits from " + start + " to " + end
+          + " in a buffer of " + encodedMessage.size() + " bits");
     }
+  }
 
-    // sort the leaves into a tree
-    ATree huffmanTree = new ArrayListUtils().sort(leaves);
+  // EFFECT: decodes the bits from start to end onto the end of the given builder by
+  // walking the tree of ATrees, which gives the same message as decodeInto
+  public void decodeIntoByWalking(BitBuffer encodedMessage, int start, int end, 
+      StringBuilder decodedMessage) {
+    this.checkRange(encodedMessage, start, end);
+    ATree currentNode = this.tree;
     
-    String decodedMessage = "";
-    ATree currentNode = huffmanTree;
-    
-    for (int i = 0; i < encodedMessage.size(); i++) {
-      Boolean bit = encodedMessage.get(i);
-      
-      if (currentNode.isLeaf()) {
-        // We're at a leaf, add its letter to the result
-        decodedMessage = decodedMessage + currentNode.getLetter();
-        
-        // Reset to root and process this same bit again
-        currentNode = huffmanTree;
-        i--; // Stay on same bit
+    for (int i = start; i < end; i++) {
+      // At an internal node, go left or right
+      if (encodedMessage.get(i)) {
+        currentNode = currentNode.getRight();
       } else {
-        // At an internal node, go left or right
-        if (bit) {
-          currentNode = currentNode.getRight();
-        } else {
-          currentNode = currentNode.getLeft();
-        }
+        currentNode = currentNode.getLeft();
+      }
+
+      // Once we reach a leaf, add its letter to the result and start again at the root
+      if (currentNode.isLeaf()) {
+        decodedMessage.append(currentNode.getLetter());
+        currentNode = this.tree;
       }
     }
     
-    // If we've processed all bits but are still at a leaf, add that letter
-    if (currentNode.isLeaf()) {
-      decodedMessage = decodedMessage + currentNode.getLetter();
-    } 
-    // If we're not at the root or a leaf, add "?" to indicate incomplete traversal
-    else if (currentNode != huffmanTree) {
-      decodedMessage = decodedMessage + "?";
+    // If we're not back at the root, add "?" to indicate incomplete traversal
+    if (currentNode != this.tree) {
+      decodedMessage.append("?");
     }
-    
-    return decodedMessage;
+  }
+
+  // builds a lookup table for decoding this Huffman's codes bitsPerLookup bits at a time
+  public DecodeTable decodeTable(int bitsPerLookup) {
+    return new DecodeTable(this.tree, bitsPerLookup);
+  }
+
+  // returns the canonical code with the same code lengths as this Huffman
+  public CanonicalCode canonicalCode() {
+    this.checkDistinctLetters();
+    int[] lengths = new int[this.alphabet.size()];
+    for (int i = 0; i < this.alphabet.size(); i++) {
+      lengths[i] = this.codesById[i].size();
+    }
+    return new CanonicalCode(this.alphabet, lengths);
+  }
+
+  // throws if a letter is in the alphabet twice, which a canonical code can't have
+  // the symbol table only gives a letter the first id it sees, so a letter that is
+  // there twice has an id that isn't its position at one of them
+  void checkDistinctLetters() {
+    for (int i = 0; i < this.alphabet.size(); i++) {
+      if (this.symbols.idOf(this.alphabet.get(i)) != i) {
+        throw new IllegalArgumentException("Cannot make a canonical code when " 
+            + this.alphabet.get(i) + " is in the alphabet twice");
+      }
+    }
+  }
+
+  // returns the best canonical code for this alphabet's frequencies where no code
+  // is longer than maxLength bits, found with package-merge
+  public CanonicalCode limitedCode(int maxLength) {
+    this.checkDistinctLetters();
+    return new CanonicalCode(this.alphabet, 
+        new ArrayListUtils().limitedLengths(this.frequencies, maxLength));
+  }
+
+  // returns a Huffman whose codes are at most maxLength bits long, so that a DecodeTable
+  // for it needs no deeper tables and every code fits in a word
+  // it can only compress worse than this one; limitReport says by how much
+  public Huffman limited(int maxLength) {
+    return new Huffman(this.limitedCode(maxLength));
+  }
+
+  // compares this Huffman to the one limited to maxLength bits, for messages
+  // with exactly this Huffman's frequencies
+  public LengthLimitReport limitReport(int maxLength) {
+    CanonicalCode limited = this.limitedCode(maxLength);
+    int deepest = 0;
+    long unlimitedBits = 0;
+    long limitedBits = 0;
+    for (int i = 0; i < this.alphabet.size(); i++) {
+      deepest = Math.max(deepest, this.codesById[i].size());
+      unlimitedBits = unlimitedBits + (long) this.frequencies.get(i) * this.codesById[i].size();
+      limitedBits = limitedBits + (long) this.frequencies.get(i) * limited.lengths[i];
+    }
+    return new LengthLimitReport(maxLength, deepest, unlimitedBits, limitedBits);
+  }
+
+  // returns a Huffman that uses the canonical codes for this alphabet
+  // it compresses exactly as well as this one, and can be rebuilt by a decoder
+  // from the header of its canonical code
+  public Huffman canonical() {
+    return new Huffman(this.canonicalCode());
+  }
+}
+
+// represents a canonical Huffman code: only the length of each letter's code is kept,
+// and the codes themselves are assigned in order of length and then alphabet position,
+// each one being the previous code plus one, padded with 0s to its length
+class CanonicalCode {
+  ArrayList<String> alphabet;
+  // the code length of each letter, in the same order as the alphabet
+  int[] lengths;
+  // the letters' positions in the alphabet, in canonical order
+  int[] order;
+  // the code of each letter, as the lowest bits of a long
+  long[] codes;
+
+  CanonicalCode(ArrayList<String> alphabet, int[] lengths) {
+    this.assignCodes(alphabet, lengths);
+  }
+
+  // reads the code back from the header made by toHeader
+  CanonicalCode(ArrayList<String> alphabet, byte[] header) {
+    if (header.length != alphabet.size()) {
+      throw new IllegalArgumentException("Header has " + header.length 
+          + " lengths but the alphabet has " + alphabet.size() + " letters");
+    }
+    int[] lengths = new int[header.length];
+    for (int i = 0; i < header.length; i++) {
+      lengths[i] = header[i];
+    }
+    this.assignCodes(alphabet, lengths);
+  }
+
+  // EFFECT: checks that the lengths make a complete code for the alphabet
+  // and assigns each letter its canonical code
+  void assignCodes(ArrayList<String> alphabet, int[] lengths) {
+    if (alphabet.size() != lengths.length) {
+      throw new IllegalArgumentException("Alphabet and lengths must be the same size");
+    }
+    else if (alphabet.size() < 2) {
+      throw new IllegalArgumentException("Alphabet must be more than 2");
+    }
+
+    // the codes must fill the whole tree exactly, so the sum of 2^-length over
+    // the letters has to be exactly 1, counted here in units of 2^-62
+    long filled = 0;
+    for (int length : lengths) {
+      if (length < 1 || length > 62) {
+        throw new IllegalArgumentException("Code lengths must be from 1 to 62");
+      }
+      filled = filled + (1L << (62 - length));
+      if (filled > (1L << 62)) {
+        break;
+      }
+    }
+    if (filled != (1L << 62)) {
+      throw new IllegalArgumentException("Code lengths do not make a complete code");
+    }
+
+    this.alphabet = new ArrayList<String>(alphabet);
+    this.lengths = lengths.clone();
+
+    ArrayList<Integer> sorted = new ArrayList<Integer>();
+    for (int i = 0; i < lengths.length; i++) {
+      sorted.add(i);
+    }
+    sorted.sort((a, b) -> lengths[a] != lengths[b] 
+        ? Integer.compare(lengths[a], lengths[b]) : Integer.compare(a, b));
+
+    this.order = new int[lengths.length];
+    this.codes = new long[lengths.length];
+    long code = 0;
+    for (int i = 0; i < sorted.size(); i++) {
+      int letter = sorted.get(i);
+      if (i > 0) {
+        code = (code + 1) << (lengths[letter] - lengths[this.order[i - 1]]);
+      }
+      this.order[i] = letter;
+      this.codes[letter] = code;
+    }
+  }
+
+  // returns the code lengths as one byte per letter, in alphabet order
+  // that is everything a decoder that knows the alphabet needs to rebuild the code
+  byte[] toHeader() {
+    byte[] header = new byte[this.lengths.length];
+    for (int i = 0; i < this.lengths.length; i++) {
+      header[i] = (byte) this.lengths[i];
+    }
+    return header;
+  }
+
+  // returns the code of the letter at the given position in the alphabet
+  BitBuffer codeOf(int letter) {
+    BitBuffer code = new BitBuffer();
+    code.append(this.codes[letter], this.lengths[letter]);
+    return code;
+  }
+
+  // returns the tree with a leaf at the end of every letter's code
+  // the frequencies aren't known, so every leaf and node has frequency 0
+  ATree toTree() {
+    return this.buildTree(0, this.order.length, 0);
+  }
+
+  // returns the tree for the letters from start to end in canonical order
+  // all of them share the first depth bits of their codes
+  ATree buildTree(int start, int end, int depth) {
+    int first = this.order[start];
+    if (end - start == 1 && this.lengths[first] == depth) {
+      return new Leaf(this.alphabet.get(first), 0, first);
+    }
+
+    // the codes are in increasing order, so the letters whose next bit is 1 come last
+    int middle = start;
+    while (middle < end && !this.bitAt(this.order[middle], depth)) {
+      middle = middle + 1;
+    }
+    return new Node(0, this.buildTree(start, middle, depth + 1), 
+        this.buildTree(middle, end, depth + 1));
+  }
+
+  // returns the bit at the given depth of the given letter's code
+  boolean bitAt(int letter, int depth) {
+    return ((this.codes[letter] >>> (this.lengths[letter] - 1 - depth)) & 1L) != 0;
+  }
+}
+
+// represents how much compression is lost by limiting the length of a Huffman's codes
+// the bits are the size of a message with exactly the Huffman's frequencies
+class LengthLimitReport {
+  int maxLength;
+  // the length of the longest code without a limit
+  int unlimitedLength;
+  long unlimitedBits;
+  long limitedBits;
+
+  LengthLimitReport(int maxLength, int unlimitedLength, long unlimitedBits, long limitedBits) {
+    this.maxLength = maxLength;
+    this.unlimitedLength = unlimitedLength;
+    this.unlimitedBits = unlimitedBits;
+    this.limitedBits = limitedBits;
+  }
+
+  // returns how many more bits the limited codes take
+  long extraBits() {
+    return this.limitedBits - this.unlimitedBits;
+  }
+
+  // returns how much bigger the limited message is, as a fraction of the unlimited one
+  double cost() {
+    if (this.unlimitedBits == 0) {
+      return 0;
+    }
+    return (double) this.extraBits() / this.unlimitedBits;
+  }
+
+  // returns this report as one line of text
+  public String toString() {
+    return String.format("max %d bits (unlimited %d): %d bits vs %d, %+.4f%%",
+        this.maxLength, this.unlimitedLength, this.limitedBits, this.unlimitedBits,
+        this.cost() * 100);
+  }
+}
+
+// represents a tree laid out in arrays instead of objects
+// the nodes are numbered in preorder from the root at 0, and node i's children are
+// children[2 * i] (for a 0 bit) and children[2 * i + 1] (for a 1 bit)
+// a child that is a leaf is stored as ~l, where l is the leaf's index in letters,
+// so telling a leaf from a node is a sign check and decoding makes no method calls
+class FlatTree {
+  int[] children;
+  String[] letters;
+  // how many of the nodes and leaves have been laid out so far
+  int nodeCount;
+  int leafCount;
+
+  FlatTree(ATree tree) {
+    if (tree.isLeaf()) {
+      throw new IllegalArgumentException("Cannot lay out a tree that is a single leaf");
+    }
+    this.nodeCount = 0;
+    this.leafCount = 0;
+    this.children = new int[16];
+    this.letters = new String[8];
+    tree.flatten(this);
+    this.children = Arrays.copyOf(this.children, 2 * this.nodeCount);
+    this.letters = Arrays.copyOf(this.letters, this.leafCount);
+  }
+
+  // EFFECT: numbers a new node and makes room for its children
+  // returns its number
+  int addNode() {
+    if (2 * this.nodeCount + 2 > this.children.length) {
+      this.children = Arrays.copyOf(this.children, this.children.length * 2);
+    }
+    this.nodeCount = this.nodeCount + 1;
+    return this.nodeCount - 1;
+  }
+
+  // EFFECT: adds a leaf for the letter
+  // returns how its parent refers to it
+  int addLeaf(String letter) {
+    if (this.leafCount == this.letters.length) {
+      this.letters = Arrays.copyOf(this.letters, this.letters.length * 2);
+    }
+    this.letters[this.leafCount] = letter;
+    this.leafCount = this.leafCount + 1;
+    return ~(this.leafCount - 1);
+  }
+
+  // EFFECT: decodes the bits from start to end onto the end of the given builder
+  // like Huffman.decode, adds "?" if the bits end in the middle of a code
+  // the bits are read straight out of the buffer's words, a word at a time
+  void decodeInto(BitBuffer encodedMessage, int start, int end, 
+      StringBuilder decodedMessage) {
+    int[] children = this.children;
+    long[] words = encodedMessage.words;
+    int node = 0;
+    int i = start;
+    while (i < end) {
+      long word = words[i >>> 6] << (i & 63);
+      int last = Math.min(end, (i | 63) + 1);
+      while (i < last) {
+        int next = children[2 * node + (int) (word >>> 63)];
+        word = word << 1;
+        i = i + 1;
+        if (next < 0) {
+          decodedMessage.append(this.letters[~next]);
+          node = 0;
+        }
+        else {
+          node = next;
+        }
+      }
+    }
+    if (node != 0) {
+      decodedMessage.append("?");
+    }
+  }
+
+  // decodes a packed buffer of bits into a message
+  String decode(BitBuffer encodedMessage) {
+    StringBuilder decodedMessage = new StringBuilder(
+        Math.min(encodedMessage.size(), 1 << 16));
+    this.decodeInto(encodedMessage, 0, encodedMessage.size(), decodedMessage);
+    return decodedMessage.toString();
+  }
+}
+
+// represents one entry of a DecodeTable
+// either a letter and the number of bits its whole code uses,
+// or the deeper table to keep looking in when the code is longer than the lookup
+class DecodeEntry {
+  String letter;
+  int length;
+  DecodeTable next;
+
+  DecodeEntry(String letter, int length, DecodeTable next) {
+    this.letter = letter;
+    this.length = length;
+    this.next = next;
+  }
+}
+
+// represents a lookup table for decoding a tree several bits at a time
+// the next bitsPerLookup bits of the message index straight into the entries,
+// codes longer than that continue in a deeper table for the node they reached
+// a deeper table looks up no more bits than the longest code under its node still needs,
+// like zlib's inflate tables, so its size follows the tree instead of the lookup width
+class DecodeTable {
+  int bitsPerLookup;
+  // the number of bits of the code already used before reaching this table
+  int depth;
+  DecodeEntry[] entries;
+
+  DecodeTable(ATree tree, int bitsPerLookup) {
+    this(tree, bitsPerLookup, 0);
+  }
+
+  DecodeTable(ATree tree, int bitsPerLookup, int depth) {
+    if (bitsPerLookup < 1 || bitsPerLookup > 24) {
+      throw new IllegalArgumentException("Can only look up 1 to 24 bits at a time");
+    }
+    else if (tree.isLeaf()) {
+      throw new IllegalArgumentException("Cannot build a decode table for a single leaf");
+    }
+    this.bitsPerLookup = bitsPerLookup;
+    this.depth = depth;
+    this.entries = new DecodeEntry[1 << bitsPerLookup];
+    tree.fillTable(this, 0, 0);
+  }
+
+  // returns the entry for the code starting at the given index of the bits
+  // the entry's letter is the letter decoded and its length the number of bits used
+  // if the length goes past the end of the bits, the code there is incomplete
+  DecodeEntry step(BitBuffer bits, int index) {
+    DecodeEntry entry = this.entries[(int) bits.peek(index, this.bitsPerLookup)];
+    while (entry.next != null) {
+      DecodeTable table = entry.next;
+      entry = table.entries[(int) bits.peek(index + table.depth, table.bitsPerLookup)];
+    }
+    return entry;
+  }
+
+  // decodes a packed buffer of bits into a message
+  // gives the same message as Huffman.decode, including "?" for an incomplete last code
+  String decode(BitBuffer encodedMessage) {
+    StringBuilder decodedMessage = new StringBuilder(
+        Math.min(encodedMessage.size(), 1 << 16));
+    this.decodeInto(encodedMessage, decodedMessage);
+    return decodedMessage.toString();
+  }
+
+  // EFFECT: decodes a packed buffer of bits onto the end of the given builder
+  void decodeInto(BitBuffer encodedMessage, StringBuilder decodedMessage) {
+    int index = 0;
+    while (index < encodedMessage.size()) {
+      DecodeEntry entry = this.step(encodedMessage, index);
+      if (index + entry.length > encodedMessage.size()) {
+        decodedMessage.append("?");
+        return;
+      }
+      decodedMessage.append(entry.letter);
+      index = index + entry.length;
+    }
+  }
+
+  // decodes a list of booleans into a message
+  String decode(ArrayList<Boolean> encodedMessage) {
+    return this.decode(new BitBuffer(encodedMessage));
   }
 }
 
 // utils class to have any ArrayList methods needed
 class ArrayListUtils {
+  // builds the tree for the given alphabet and frequencies
+  // creates a leaf for each letter and sorts the leaves into a single tree
+  ATree buildTree(ArrayList<String> alphabet, ArrayList<Integer> frequencies) {
+    ArrayList<ATree> leaves = new ArrayList<ATree>();
+    for (int i = 0; i < alphabet.size(); i++) {
+      leaves.add(new Leaf(alphabet.get(i), frequencies.get(i), i));
+    }
+    return this.sort(leaves);
+  }
+
   // returns the list of leaves as a single sorted node
+  // keeps the trees in a heap ordered by frequency and then by when they were added,
+  // so it joins the same trees in the same order as sortByScanning in O(n log n)
   ATree sort(ArrayList<ATree> leaves) {
+    if (leaves.isEmpty()) {
+      throw new IllegalArgumentException("Cannot sort an empty list of leaves");
+    }
+
+    ArrayList<QueuedTree> queued = new ArrayList<QueuedTree>(leaves.size());
+    for (ATree leaf : leaves) {
+      queued.add(new QueuedTree(leaf, queued.size()));
+    }
+    PriorityQueue<QueuedTree> queue = new PriorityQueue<QueuedTree>(queued);
+    int order = queued.size();
+
+    while (queue.size() != 1) {
+      ATree lowest = queue.poll().tree;
+      ATree secondLowest = queue.poll().tree;
+      queue.add(new QueuedTree(
+          new Node(lowest.frequency + secondLowest.frequency, lowest, secondLowest), order));
+      order = order + 1;
+    }
+    return queue.poll().tree;
+  }
+
+  // returns the list of leaves as a single sorted node by scanning the list for the
+  // two lowest trees each time, which is O(n^2)
+  // the first of several equally low trees in the list is taken first, and joined trees
+  // go on the end of the list
+  ATree sortByScanning(ArrayList<ATree> leaves) {
     while (leaves.size() != 1) {
       ATree lowest = new ArrayListUtils().getLowest(leaves);
       leaves.remove(lowest);
@@ -104,6 +625,84 @@ class ArrayListUtils {
     return leaves.get(0);
   }
 
+  // returns the best code length for each frequency where no length is over maxLength,
+  // using package-merge: the letters are coins worth their frequency, and at each of the
+  // maxLength levels the cheapest pairs of the level below are packaged and merged in
+  // with the letters again; the cheapest 2n - 2 items of the top level are the answer,
+  // and each letter's length is how many of them it is in
+  int[] limitedLengths(ArrayList<Integer> frequencies, int maxLength) {
+    int n = frequencies.size();
+    if (maxLength < 1 || maxLength > 62) {
+      throw new IllegalArgumentException("Code lengths must be from 1 to 62");
+    }
+    else if (n < 2) {
+      throw new IllegalArgumentException("Alphabet must be more than 2");
+    }
+    else if (maxLength < 31 && n > (1 << maxLength)) {
+      throw new IllegalArgumentException("Cannot give " + n 
+          + " letters codes of at most " + maxLength + " bits");
+    }
+
+    // the letters from least to most frequent, ties in alphabet order
+    ArrayList<Integer> sorted = new ArrayList<Integer>(n);
+    for (int i = 0; i < n; i++) {
+      sorted.add(i);
+    }
+    sorted.sort((a, b) -> Integer.compare(frequencies.get(a), frequencies.get(b)) != 0 
+        ? Integer.compare(frequencies.get(a), frequencies.get(b)) : Integer.compare(a, b));
+
+    // levels[d] is the letter of each item at depth d + 1, or -1 for a package,
+    // which is made of the next two unused items of levels[d + 1]
+    int[][] levels = new int[maxLength][];
+    long[] weights = new long[n];
+    int[] letters = new int[n];
+    for (int i = 0; i < n; i++) {
+      letters[i] = sorted.get(i);
+      weights[i] = frequencies.get(letters[i]);
+    }
+    levels[maxLength - 1] = letters;
+    for (int d = maxLength - 2; d >= 0; d--) {
+      int packages = weights.length / 2;
+      long[] merged = new long[n + packages];
+      int[] level = new int[n + packages];
+      int leaf = 0;
+      int pack = 0;
+      for (int i = 0; i < merged.length; i++) {
+        long packWeight = pack < packages 
+            ? weights[2 * pack] + weights[2 * pack + 1] : Long.MAX_VALUE;
+        if (leaf < n && frequencies.get(sorted.get(leaf)) <= packWeight) {
+          merged[i] = frequencies.get(sorted.get(leaf));
+          level[i] = sorted.get(leaf);
+          leaf = leaf + 1;
+        }
+        else {
+          merged[i] = packWeight;
+          level[i] = -1;
+          pack = pack + 1;
+        }
+      }
+      weights = merged;
+      levels[d] = level;
+    }
+
+    // every package used at one level uses up the next two items of the level below
+    int[] lengths = new int[n];
+    int used = 2 * n - 2;
+    for (int d = 0; d < maxLength; d++) {
+      int packagesUsed = 0;
+      for (int i = 0; i < used; i++) {
+        if (levels[d][i] < 0) {
+          packagesUsed = packagesUsed + 1;
+        }
+        else {
+          lengths[levels[d][i]]++;
+        }
+      }
+      used = 2 * packagesUsed;
+    }
+    return lengths;
+  }
+
   // gets the lowest valued leaf in the list of leaves
   ATree getLowest(ArrayList<ATree> leaves) {
     ATree lowest = leaves.get(0);
@@ -122,6 +721,239 @@ class ArrayListUtils {
   }
 }
 
+// maps the letters of an alphabet to int ids, so encoding works on ints
+// letters that are a single code point are found by code point in an array,
+// so looking one up from a message allocates nothing
+// longer letters (like whole words) are found by their string
+class SymbolTable {
+  // the letter of each id
+  String[] letters;
+  // the id of each letter that is one code point in the Basic Multilingual Plane,
+  // indexed by the code point, or -1; it only grows as far as the largest such letter
+  int[] idsByCodePoint;
+  // the id of each letter that is one code point above the Basic Multilingual Plane,
+  // which would make the array above far too big for a few letters
+  HashMap<Integer, Integer> idsBySupplementary;
+  HashMap<String, Integer> idsByLetter;
+
+  SymbolTable(int size) {
+    this.letters = new String[size];
+    this.idsByCodePoint = new int[128];
+    Arrays.fill(this.idsByCodePoint, -1);
+    this.idsBySupplementary = new HashMap<Integer, Integer>();
+    this.idsByLetter = new HashMap<String, Integer>();
+  }
+
+  // EFFECT: gives the letter the id, unless the letter already has one
+  void add(String letter, int id) {
+    if (this.idsByLetter.containsKey(letter)) {
+      return;
+    }
+    this.letters[id] = letter;
+    this.idsByLetter.put(letter, id);
+    if (!letter.isEmpty() && letter.codePointCount(0, letter.length()) == 1) {
+      int codePoint = letter.codePointAt(0);
+      if (codePoint > Character.MAX_VALUE) {
+        this.idsBySupplementary.put(codePoint, id);
+        return;
+      }
+      if (codePoint >= this.idsByCodePoint.length) {
+        int oldLength = this.idsByCodePoint.length;
+        this.idsByCodePoint = Arrays.copyOf(this.idsByCodePoint, 
+            Math.min(Character.MAX_VALUE + 1, Math.max(codePoint + 1, oldLength * 2)));
+        Arrays.fill(this.idsByCodePoint, oldLength, this.idsByCodePoint.length, -1);
+      }
+      this.idsByCodePoint[codePoint] = id;
+    }
+  }
+
+  // returns the id of the letter, or -1 if it isn't in the table
+  int idOf(String letter) {
+    Integer id = this.idsByLetter.get(letter);
+    if (id == null) {
+      return -1;
+    }
+    return id;
+  }
+
+  // returns the id of the letter that is the given code point, or -1 if it isn't in the table
+  int idOf(int codePoint) {
+    if (codePoint < this.idsByCodePoint.length) {
+      return this.idsByCodePoint[codePoint];
+    }
+    else if (codePoint > Character.MAX_VALUE) {
+      Integer id = this.idsBySupplementary.get(codePoint);
+      if (id != null) {
+        return id;
+      }
+    }
+    return -1;
+  }
+
+  // returns the letter with the given id
+  String letterOf(int id) {
+    return this.letters[id];
+  }
+
+  // returns how many chars the letter at index of the message takes, stopping at end
+  // a surrogate pair is one letter, unless it isn't in the table but its first half is
+  int widthAt(String message, int index, int end) {
+    char first = message.charAt(index);
+    if (Character.isHighSurrogate(first) && index + 1 < end 
+        && Character.isLowSurrogate(message.charAt(index + 1))
+        && (this.idOf(Character.toCodePoint(first, message.charAt(index + 1))) >= 0
+            || this.idOf(first) < 0)) {
+      return 2;
+    }
+    return 1;
+  }
+
+  // returns the id of the letter at index of the message that takes width chars
+  int idAt(String message, int index, int width) {
+    if (width == 2) {
+      return this.idOf(Character.toCodePoint(message.charAt(index), message.charAt(index + 1)));
+    }
+    return this.idOf(message.charAt(index));
+  }
+}
+
+// represents a tree waiting to be joined while sorting, along with when it was added
+// ordered by frequency, and ties go to the tree that was added first
+class QueuedTree implements Comparable<QueuedTree> {
+  ATree tree;
+  int order;
+
+  QueuedTree(ATree tree, int order) {
+    this.tree = tree;
+    this.order = order;
+  }
+
+  // compares by frequency and then by when the trees were added
+  public int compareTo(QueuedTree other) {
+    if (this.tree.frequency != other.tree.frequency) {
+      return Integer.compare(this.tree.frequency, other.tree.frequency);
+    }
+    return Integer.compare(this.order, other.order);
+  }
+}
+
+// represents a growable sequence of bits packed 64 to a long
+// bit i is stored in words[i / 64], counting from the most significant bit of the word,
+// and every bit past size is always 0
+class BitBuffer {
+  long[] words;
+  int size;
+
+  BitBuffer() {
+    this.words = new long[1];
+    this.size = 0;
+  }
+
+  // copies the bits of the given buffer
+  BitBuffer(BitBuffer other) {
+    this.words = Arrays.copyOf(other.words, Math.max(1, (other.size + 63) >>> 6));
+    this.size = other.size;
+  }
+
+  // packs the given list of booleans, true being a 1 bit
+  BitBuffer(ArrayList<Boolean> bits) {
+    this.words = new long[Math.max(1, (bits.size() + 63) >>> 6)];
+    this.size = 0;
+    for (Boolean bit : bits) {
+      this.add(bit);
+    }
+  }
+
+  // returns the number of bits in the buffer
+  int size() {
+    return this.size;
+  }
+
+  // returns the bit at the given index
+  boolean get(int index) {
+    if (index < 0 || index >= this.size) {
+      throw new IndexOutOfBoundsException("No bit at index " + index);
+    }
+    return ((this.words[index >>> 6] >>> (63 - (index & 63))) & 1L) != 0;
+  }
+
+  // EFFECT: adds one bit to the end of the buffer
+  void add(boolean bit) {
+    this.append(bit ? 1L : 0L, 1);
+  }
+
+  // EFFECT: adds the lowest count bits of the given long to the end of the buffer,
+  // most significant of those bits first
+  void append(long bits, int count) {
+    if (count < 0 || count > 64) {
+      throw new IllegalArgumentException("Can only append 0 to 64 bits at a time");
+    }
+    if (count == 0) {
+      return;
+    }
+    this.ensureCapacity(this.size + count);
+    if (count < 64) {
+      bits = bits & ((1L << count) - 1);
+    }
+
+    int word = this.size >>> 6;
+    int free = 64 - (this.size & 63);
+    if (count <= free) {
+      this.words[word] |= bits << (free - count);
+    }
+    else {
+      this.words[word] |= bits >>> (count - free);
+      this.words[word + 1] |= bits << (64 - (count - free));
+    }
+    this.size = this.size + count;
+  }
+
+  // EFFECT: adds all the bits of the given buffer to the end of this buffer
+  void append(BitBuffer other) {
+    for (int i = 0; i < other.size; i = i + 64) {
+      int count = Math.min(64, other.size - i);
+      this.append(other.peek(i, count), count);
+    }
+  }
+
+  // returns the count bits starting at the given index as the lowest bits of a long,
+  // with the bit at index being the most significant of them
+  // bits past the end of the buffer read as 0
+  long peek(int index, int count) {
+    int word = index >>> 6;
+    int offset = index & 63;
+    long window = 0;
+    if (word < this.words.length) {
+      window = this.words[word] << offset;
+    }
+    if (offset != 0 && offset + count > 64 && word + 1 < this.words.length) {
+      window |= this.words[word + 1] >>> (64 - offset);
+    }
+    if (count == 64) {
+      return window;
+    }
+    return window >>> (64 - count);
+  }
+
+  // EFFECT: grows the words so they can hold at least the given number of bits
+  void ensureCapacity(int bits) {
+    int needed = (bits + 63) >>> 6;
+    if (needed > this.words.length) {
+      this.words = Arrays.copyOf(this.words, 
+          Math.max(needed, this.words.length * 2));
+    }
+  }
+
+  // returns the bits as a list of booleans, true being a 1 bit
+  ArrayList<Boolean> toBooleans() {
+    ArrayList<Boolean> bits = new ArrayList<Boolean>(this.size);
+    for (int i = 0; i < this.size; i++) {
+      bits.add(this.get(i));
+    }
+    return bits;
+  }
+}
+
 abstract class ATree {
   int frequency;
 
@@ -135,7 +967,24 @@ abstract class ATree {
 
   // checks if the letter is in the tree
   public abstract boolean contains(String letter);
+
+  // EFFECT: adds the code of every letter in the tree to the given codes, by id,
+  // and gives every letter its id in the symbol table
+  // pathSoFar is the path from the root of the whole tree to this tree
+  public abstract void addCodes(BitBuffer pathSoFar, SymbolTable symbols, 
+      BitBuffer[] codesById);
   
+  // EFFECT: fills in the entries of the table reached by the given prefix
+  // used is how many of the table's lookup bits the prefix already takes up
+  public abstract void fillTable(DecodeTable table, int prefix, int used);
+
+  // EFFECT: lays this tree out in the given flat tree
+  // returns how its parent refers to it there
+  public abstract int flatten(FlatTree flat);
+
+  // returns the length of the longest path from this tree down to a leaf
+  public abstract int height();
+
   // Is this a leaf node?
   public abstract boolean isLeaf();
   
@@ -151,10 +1000,17 @@ abstract class ATree {
 
 class Leaf extends ATree {
   String letter;
+  // the position of the letter in its alphabet, or -1 if it isn't part of one
+  int id;
 
   Leaf(String letter, int frequency) {
+    this(letter, frequency, -1);
+  }
+
+  Leaf(String letter, int frequency, int id) {
     super(frequency);
     this.letter = letter;
+    this.id = id;
   }
 
   // base case for finding the path of the letter through the tree
@@ -173,7 +1029,36 @@ class Leaf extends ATree {
   public boolean contains(String letter) {
     return this.letter.equals(letter);
   }
+
+  // EFFECT: adds the path to this leaf as the code for its id
+  // if the letter appears twice, the leftmost leaf's id is the one used to encode it,
+  // like findPath
+  public void addCodes(BitBuffer pathSoFar, SymbolTable symbols, BitBuffer[] codesById) {
+    if (this.id < 0) {
+      throw new IllegalArgumentException("Leaf for " + this.letter + " has no id");
+    }
+    codesById[this.id] = pathSoFar;
+    symbols.add(this.letter, this.id);
+  }
   
+  // EFFECT: every index that starts with the prefix decodes to this letter,
+  // whatever its remaining bits are
+  public void fillTable(DecodeTable table, int prefix, int used) {
+    int unused = table.bitsPerLookup - used;
+    DecodeEntry entry = new DecodeEntry(this.letter, table.depth + used, null);
+    Arrays.fill(table.entries, prefix << unused, (prefix + 1) << unused, entry);
+  }
+
+  // EFFECT: adds this leaf to the flat tree
+  public int flatten(FlatTree flat) {
+    return flat.addLeaf(this.letter);
+  }
+
+  // a leaf is at the bottom already
+  public int height() {
+    return 0;
+  }
+
   // Yes, this is a leaf
   public boolean isLeaf() {
     return true;
@@ -223,7 +1108,51 @@ class Node extends ATree {
   public boolean contains(String letter) {
     return this.left.contains(letter) || this.right.contains(letter);
   }
+
+  // EFFECT: adds the codes of the left side (path + false) and then the
+  // right side (path + true) to the table
+  public void addCodes(BitBuffer pathSoFar, SymbolTable symbols, BitBuffer[] codesById) {
+    BitBuffer leftPath = new BitBuffer(pathSoFar);
+    leftPath.add(false);
+    this.left.addCodes(leftPath, symbols, codesById);
+
+    BitBuffer rightPath = new BitBuffer(pathSoFar);
+    rightPath.add(true);
+    this.right.addCodes(rightPath, symbols, codesById);
+  }
   
+  // EFFECT: fills the left side with prefix + 0 and the right side with prefix + 1
+  // once the prefix uses every lookup bit, the entry moves on to a table for this node
+  // that only looks up as many bits as this node's codes still need, so a shallow
+  // node gets a small table instead of a full one
+  public void fillTable(DecodeTable table, int prefix, int used) {
+    if (used == table.bitsPerLookup) {
+      DecodeTable next = new DecodeTable(this, Math.min(table.bitsPerLookup, this.height()),
+          table.depth + table.bitsPerLookup);
+      table.entries[prefix] = new DecodeEntry(null, next.depth, next);
+    }
+    else {
+      this.left.fillTable(table, prefix << 1, used + 1);
+      this.right.fillTable(table, (prefix << 1) | 1, used + 1);
+    }
+  }
+
+  // EFFECT: numbers this node before everything under it, then lays out the left side
+  // and then the right side
+  public int flatten(FlatTree flat) {
+    int node = flat.addNode();
+    int left = this.left.flatten(flat);
+    int right = this.right.flatten(flat);
+    flat.children[2 * node] = left;
+    flat.children[2 * node + 1] = right;
+    return node;
+  }
+
+  // one more than the taller of the two sides
+  public int height() {
+    return 1 + Math.max(this.left.height(), this.right.height());
+  }
+
   // No, this is not a leaf
   public boolean isLeaf() {
     return false;
@@ -347,6 +1276,554 @@ class ExamplesHuffman {
     t.checkExpect(h.decode(multiChars), "btr");
   }
 
+  void testCodes(Tester t) {
+    init();
+    ArrayList<Boolean> bCode = new ArrayList<Boolean>();
+    bCode.add(false);
+    bCode.add(false);
+    ArrayList<Boolean> tCode = new ArrayList<Boolean>();
+    tCode.add(true);
+    tCode.add(true);
+
+    t.checkExpect(h.codesById.length, 4);
+    t.checkExpect(h.codeOf("b").toBooleans(), bCode);
+    t.checkExpect(h.codeOf("t").toBooleans(), tCode);
+    t.checkExpect(h.codeOf("u"), null);
+
+    // the table gives the same answer as searching the tree with findPath
+    t.checkExpect(h.codeOf("r").toBooleans(), 
+        new ArrayListUtils().addCode(new ArrayList<Boolean>(), "r", h.tree));
+
+    // encoding twice with the same Huffman uses the same table
+    t.checkExpect(h.encode("better"), result);
+    t.checkExpect(h.encode("better"), result);
+    t.checkExpect(h.encode(""), new ArrayList<Boolean>());
+  }
+
+  void testBitBuffer(Tester t) {
+    init();
+    BitBuffer empty = new BitBuffer();
+    t.checkExpect(empty.size(), 0);
+    t.checkExpect(empty.toBooleans(), new ArrayList<Boolean>());
+    t.checkException(new IndexOutOfBoundsException("No bit at index 0"), empty, "get", 0);
+
+    // converting to and from a list of booleans keeps every bit
+    BitBuffer packed = new BitBuffer(result);
+    t.checkExpect(packed.size(), 12);
+    t.checkExpect(packed.toBooleans(), result);
+    t.checkExpect(packed.get(0), false);
+    t.checkExpect(packed.get(2), true);
+    t.checkExpect(packed.peek(0, 6), 11L); // 001011
+
+    // appending across the boundary between two words
+    BitBuffer wide = new BitBuffer();
+    wide.append(0L, 60);
+    wide.append(0b10110111L, 8);
+    t.checkExpect(wide.size(), 68);
+    t.checkExpect(wide.words.length, 2);
+    t.checkExpect(wide.peek(60, 8), 0b10110111L);
+    t.checkExpect(wide.peek(64, 8), 0b01110000L); // bits past the end read as 0
+    t.checkExpect(wide.get(60), true);
+    t.checkExpect(wide.get(61), false);
+
+    BitBuffer full = new BitBuffer();
+    full.add(true);
+    full.append(-1L, 64);
+    t.checkExpect(full.size(), 65);
+    t.checkExpect(full.peek(1, 64), -1L);
+    t.checkExpect(full.peek(0, 64), -1L);
+
+    BitBuffer joined = new BitBuffer(packed);
+    joined.append(wide);
+    t.checkExpect(joined.size(), 80);
+    t.checkExpect(joined.peek(72, 8), 0b10110111L);
+    t.checkExpect(packed.size(), 12); // copying did not share the words
+
+    t.checkException(new IllegalArgumentException("Can only append 0 to 64 bits at a time"), 
+        empty, "append", 1L, 65);
+  }
+
+  void testEncodeBits(Tester t) {
+    init();
+    t.checkExpect(h.encodeBits("better").toBooleans(), result);
+    t.checkExpect(h.decode(h.encodeBits("better")), "better");
+    t.checkExpect(h.decode(new BitBuffer()), "");
+
+    // a long message is held in one long per 64 bits
+    String message = "";
+    for (int i = 0; i < 100; i++) {
+      message = message + "better";
+    }
+    BitBuffer encoded = h.encodeBits(message);
+    t.checkExpect(encoded.size(), 1200);
+    t.checkExpect(encoded.words.length <= 32, true);
+    t.checkExpect(h.decode(encoded), message);
+    t.checkExpect(h.decode(encoded.toBooleans()), message);
+  }
+
+  void testDecodeTable(Tester t) {
+    init();
+    DecodeTable one = h.decodeTable(1);
+    DecodeTable three = h.decodeTable(3);
+    DecodeTable eight = h.decodeTable(8);
+
+    // every code is 2 bits, so a 1 bit table needs a second level
+    t.checkExpect(one.entries.length, 2);
+    t.checkExpect(one.entries[0].next.depth, 1);
+    t.checkExpect(three.entries.length, 8);
+    t.checkExpect(three.entries[0b010].letter, "r");
+    t.checkExpect(three.entries[0b010].length, 2);
+    t.checkExpect(three.entries[0b011], three.entries[0b010]);
+
+    // each step gives the letter and how many bits it used
+    BitBuffer bits = new BitBuffer(result);
+    t.checkExpect(eight.step(bits, 0).letter, "b");
+    t.checkExpect(eight.step(bits, 2).letter, "e");
+    t.checkExpect(eight.step(bits, 2).length, 2);
+    t.checkExpect(one.step(bits, 10).letter, "r");
+    t.checkExpect(one.step(bits, 10).length, 2);
+
+    // decoding with a table gives the same answer as walking the tree
+    t.checkExpect(one.decode(result), "better");
+    t.checkExpect(three.decode(result), "better");
+    t.checkExpect(eight.decode(result), "better");
+    t.checkExpect(eight.decode(badResult), h.decode(badResult));
+    t.checkExpect(three.decode(new ArrayList<Boolean>()), "");
+
+    ArrayList<Boolean> oneBit = new ArrayList<Boolean>();
+    oneBit.add(true);
+    t.checkExpect(eight.decode(oneBit), h.decode(oneBit));
+    t.checkExpect(one.decode(oneBit), "?");
+
+    // a deeper tree, with codes up to 5 bits
+    ArrayList<String> letters = new ArrayList<String>();
+    ArrayList<Integer> weights = new ArrayList<Integer>();
+    String message = "";
+    for (int i = 0; i < 6; i++) {
+      letters.add("" + (char) ('a' + i));
+      weights.add(1 << i);
+      message = message + letters.get(i) + letters.get(i / 2);
+    }
+    Huffman skewed = new Huffman(letters, weights);
+    BitBuffer encoded = skewed.encodeBits(message);
+    // the codes under the node 3 bits down are at most 2 bits longer, so its table
+    // only looks up 2 bits
+    DecodeTable top = skewed.decodeTable(3);
+    DecodeTable deeper = top.entries[0].next;
+    for (DecodeEntry entry : top.entries) {
+      if (entry.next != null) {
+        deeper = entry.next;
+      }
+    }
+    t.checkExpect(deeper.depth, 3);
+    t.checkExpect(deeper.bitsPerLookup, 2);
+    t.checkExpect(deeper.entries.length, 4);
+    t.checkExpect(skewed.tree.height(), 5);
+    for (int k = 1; k <= 6; k++) {
+      DecodeTable table = skewed.decodeTable(k);
+      t.checkExpect(table.decode(encoded), message);
+      ArrayList<Boolean> truncated = encoded.toBooleans();
+      truncated.remove(truncated.size() - 1);
+      t.checkExpect(table.decode(truncated), skewed.decode(truncated));
+    }
+
+    t.checkException(new IllegalArgumentException("Can only look up 1 to 24 bits at a time"), 
+        h, "decodeTable", 0);
+  }
+
+  void testDecodeInto(Tester t) {
+    init();
+    StringBuilder out = new StringBuilder("so far: ");
+    h.decodeInto(new BitBuffer(result), out);
+    t.checkExpect(out.toString(), "so far: better");
+
+    // the same builder can be reused for the next message
+    out.setLength(0);
+    h.decodeInto(new BitBuffer(badResult), out);
+    t.checkExpect(out.toString(), "b?");
+
+    out.setLength(0);
+    h.decodeTable(4).decodeInto(new BitBuffer(result), out);
+    h.decodeTable(4).decodeInto(new BitBuffer(), out);
+    t.checkExpect(out.toString(), "better");
+
+    // a long message decodes without building a new string for every letter
+    StringBuilder message = new StringBuilder();
+    for (int i = 0; i < 50000; i++) {
+      message.append("better");
+    }
+    BitBuffer encoded = h.encodeBits(message.toString());
+    t.checkExpect(h.decode(encoded), message.toString());
+    t.checkExpect(h.decodeTable(8).decode(encoded), message.toString());
+  }
+
+  void testDecodeRange(Tester t) {
+    init();
+    // b = 00, e = 10, t = 11
+    BitBuffer bits = new BitBuffer(result);
+    StringBuilder out = new StringBuilder();
+    h.decodeInto(bits, 2, 6, out);
+    h.decodeInto(bits, 6, 6, out);
+    t.checkExpect(out.toString(), "et");
+    // the buffer's word has room past its 12 bits, but they aren't part of the message
+    t.checkException(new IndexOutOfBoundsException("No bits from 0 to 14 in a buffer of 12 bits"),
+        h, "decodeInto", bits, 0, 14, out);
+    t.checkException(new IndexOutOfBoundsException("No bits from 0 to 200 in a buffer of 12 bits"),
+        h, "decodeInto", bits, 0, 200, out);
+    t.checkException(new IndexOutOfBoundsException("No bits from -1 to 4 in a buffer of 12 bits"),
+        h, "decodeInto", bits, -1, 4, out);
+    t.checkException(new IndexOutOfBoundsException("No bits from 6 to 4 in a buffer of 12 bits"),
+        h, "decodeIntoByWalking", bits, 6, 4, out);
+    t.checkExpect(out.toString(), "et");
+  }
+
+  // makes a list of leaves for the given letters and frequencies
+  ArrayList<ATree> leavesFor(ArrayList<String> letters, ArrayList<Integer> weights) {
+    ArrayList<ATree> leaves = new ArrayList<ATree>();
+    for (int i = 0; i < letters.size(); i++) {
+      leaves.add(new Leaf(letters.get(i), weights.get(i), i));
+    }
+    return leaves;
+  }
+
+  void testFlatTree(Tester t) {
+    init();
+    // b = 00, r = 01, e = 10, t = 11, so the root's children are nodes 1 and 2
+    FlatTree flat = new FlatTree(h.tree);
+    t.checkExpect(flat.children, new int[] {1, 2, ~0, ~1, ~2, ~3});
+    t.checkExpect(flat.letters, new String[] {"b", "r", "e", "t"});
+    t.checkExpect(flat.decode(h.encodeBits("better")), "better");
+    t.checkExpect(flat.decode(new BitBuffer(badResult)), "b?");
+    t.checkExpect(flat.decode(new BitBuffer()), "");
+    t.checkConstructorExceptionType(IllegalArgumentException.class, "FlatTree", 
+        new Leaf("a", 1, 0));
+
+    // decoding from the middle of a word, and across words, gives the same message
+    // as walking the tree
+    ArrayList<String> letters = new ArrayList<String>();
+    ArrayList<Integer> weights = new ArrayList<Integer>();
+    for (int i = 0; i < 20; i++) {
+      letters.add("" + (char) ('a' + i));
+      weights.add(1 << i);
+    }
+    Huffman skewed = new Huffman(letters, weights);
+    StringBuilder message = new StringBuilder();
+    for (int i = 0; i < 500; i++) {
+      message.append((char) ('a' + (i * 7) % 20));
+    }
+    BitBuffer bits = skewed.encodeBits(message.toString());
+    t.checkExpect(skewed.decode(bits), message.toString());
+    for (int start : new int[] {0, 1, 19, 63, 64, 100}) {
+      for (int end : new int[] {start, start + 1, start + 64, start + 200, bits.size()}) {
+        StringBuilder flatOut = new StringBuilder();
+        StringBuilder walkOut = new StringBuilder();
+        skewed.decodeInto(bits, start, end, flatOut);
+        skewed.decodeIntoByWalking(bits, start, end, walkOut);
+        t.checkExpect(flatOut.toString(), walkOut.toString());
+      }
+    }
+  }
+
+  void testSort(Tester t) {
+    init();
+    ArrayListUtils utils = new ArrayListUtils();
+
+    // the heap makes the same tree as scanning for the lowest leaves
+    t.checkExpect(utils.sort(leavesFor(better, betterNums)), 
+        utils.sortByScanning(leavesFor(better, betterNums)));
+    t.checkExpect(h.tree, utils.sortByScanning(leavesFor(better, betterNums)));
+
+    // lots of ties, skewed weights and a bigger alphabet
+    ArrayList<String> letters = new ArrayList<String>();
+    ArrayList<Integer> ties = new ArrayList<Integer>();
+    ArrayList<Integer> skewed = new ArrayList<Integer>();
+    ArrayList<Integer> mixed = new ArrayList<Integer>();
+    for (int i = 0; i < 40; i++) {
+      letters.add("" + (char) ('0' + i));
+      ties.add(3);
+      skewed.add(i < 20 ? 1 << i : 1);
+      mixed.add((i * 7) % 5 + 1);
+    }
+    t.checkExpect(utils.sort(leavesFor(letters, ties)), 
+        utils.sortByScanning(leavesFor(letters, ties)));
+    t.checkExpect(utils.sort(leavesFor(letters, skewed)), 
+        utils.sortByScanning(leavesFor(letters, skewed)));
+    t.checkExpect(utils.sort(leavesFor(letters, mixed)), 
+        utils.sortByScanning(leavesFor(letters, mixed)));
+
+    // a large alphabet still builds a full tree
+    ArrayList<ATree> many = new ArrayList<ATree>();
+    int total = 0;
+    for (int i = 0; i < 50000; i++) {
+      many.add(new Leaf("s" + i, i % 97 + 1));
+      total = total + i % 97 + 1;
+    }
+    t.checkExpect(utils.sort(many).frequency, total);
+
+    t.checkException(new IllegalArgumentException("Cannot sort an empty list of leaves"), 
+        utils, "sort", new ArrayList<ATree>());
+  }
+
+  void testCanonicalCode(Tester t) {
+    init();
+    CanonicalCode code = h.canonicalCode();
+    t.checkExpect(code.lengths, new int[] {2, 2, 2, 2});
+    t.checkExpect(code.toHeader(), new byte[] {2, 2, 2, 2});
+    t.checkExpect(code.codes, new long[] {0, 1, 2, 3});
+
+    // codes of the same length go in alphabet order
+    ArrayList<Boolean> eCode = new ArrayList<Boolean>();
+    eCode.add(false);
+    eCode.add(true);
+    t.checkExpect(code.codeOf(1).toBooleans(), eCode);
+
+    // the canonical Huffman compresses as well, and a decoder that only has
+    // the alphabet and header can read it
+    Huffman canonical = h.canonical();
+    t.checkExpect(canonical.encode("better").size(), result.size());
+    Huffman rebuilt = new Huffman(new CanonicalCode(better, code.toHeader()));
+    t.checkExpect(rebuilt.decode(canonical.encode("better")), "better");
+    t.checkExpect(rebuilt.encode("better"), canonical.encode("better"));
+    t.checkExpect(rebuilt.frequencies.size(), 4);
+
+    // lengths 1, 2, 3, 3: a = 0, b = 10, d = 110, c = 111
+    ArrayList<String> abcd = new ArrayList<String>();
+    abcd.add("d");
+    abcd.add("a");
+    abcd.add("c");
+    abcd.add("b");
+    CanonicalCode uneven = new CanonicalCode(abcd, new int[] {3, 1, 3, 2});
+    t.checkExpect(uneven.order, new int[] {1, 3, 0, 2});
+    t.checkExpect(uneven.codes, new long[] {6, 0, 7, 2});
+    Huffman fromLengths = new Huffman(uneven);
+    t.checkExpect(fromLengths.decode(fromLengths.encode("abcdcba")), "abcdcba");
+    t.checkExpect(fromLengths.encode("d").size(), 3);
+    t.checkExpect(fromLengths.canonicalCode().lengths, uneven.lengths);
+
+    // a skewed tree keeps its lengths
+    ArrayList<String> letters = new ArrayList<String>();
+    ArrayList<Integer> weights = new ArrayList<Integer>();
+    for (int i = 0; i < 10; i++) {
+      letters.add("" + (char) ('a' + i));
+      weights.add(1 << i);
+    }
+    Huffman skewed = new Huffman(letters, weights);
+    CanonicalCode skewedCode = skewed.canonicalCode();
+    t.checkExpect(skewed.canonical().canonicalCode().lengths, skewedCode.lengths);
+    t.checkExpect(new Huffman(new CanonicalCode(letters, skewedCode.toHeader()))
+        .decode(skewed.canonical().encode("jihgfedcba")), "jihgfedcba");
+
+    t.checkConstructorExceptionType(IllegalArgumentException.class, "CanonicalCode", 
+        abcd, new int[] {2, 2, 2, 3});
+    t.checkConstructorExceptionType(IllegalArgumentException.class, "CanonicalCode", 
+        abcd, new int[] {1, 1, 2, 2});
+    t.checkConstructorExceptionType(IllegalArgumentException.class, "CanonicalCode", 
+        abcd, new int[] {0, 1, 2, 2});
+    t.checkConstructorExceptionType(IllegalArgumentException.class, "CanonicalCode", 
+        abcd, new byte[] {1, 2});
+
+    // a letter that is in the alphabet twice is caught wherever its copies are
+    abcd.add("a");
+    ArrayList<Integer> fives = new ArrayList<Integer>(Arrays.asList(5, 4, 3, 2, 1));
+    t.checkException(new IllegalArgumentException(
+        "Cannot make a canonical code when a is in the alphabet twice"),
+        new Huffman(abcd, fives), "canonicalCode");
+
+    // checking for repeats is a lookup per letter, so a large alphabet is quick
+    ArrayList<String> large = new ArrayList<String>();
+    ArrayList<Integer> ones = new ArrayList<Integer>();
+    for (int i = 0; i < 65536; i++) {
+      large.add("" + (char) i);
+      ones.add(1 + i % 7);
+    }
+    t.checkExpect(new Huffman(large, ones).canonicalCode().lengths.length, 65536);
+  }
+
+  void testLimitedCode(Tester t) {
+    // doubling frequencies make a tree as deep as it can be: 1, 2, ..., 9, 9
+    ArrayList<String> letters = new ArrayList<String>();
+    ArrayList<Integer> weights = new ArrayList<Integer>();
+    for (int i = 0; i < 10; i++) {
+      letters.add("" + (char) ('a' + i));
+      weights.add(1 << i);
+    }
+    Huffman skewed = new Huffman(letters, weights);
+    t.checkExpect(skewed.codeOf("a").size(), 9);
+
+    // with room for every length the Huffman needs, package-merge finds the same lengths
+    t.checkExpect(new ArrayListUtils().limitedLengths(weights, 9), 
+        skewed.canonicalCode().lengths);
+    t.checkExpect(new ArrayListUtils().limitedLengths(weights, 62), 
+        skewed.canonicalCode().lengths);
+
+    CanonicalCode four = skewed.limitedCode(4);
+    t.checkExpect(four.lengths, new int[] {4, 4, 4, 4, 4, 4, 4, 4, 2, 2});
+    Huffman limited = skewed.limited(4);
+    t.checkExpect(limited.decode(limited.encode("jihgfedcba")), "jihgfedcba");
+    t.checkExpect(limited.codeOf("a").size(), 4);
+    // no deeper tables are needed when the lookup is as long as the longest code
+    DecodeTable table = limited.decodeTable(4);
+    for (DecodeEntry entry : table.entries) {
+      t.checkExpect(entry.next, null);
+    }
+
+    // with the limit, a through h take 4 bits each instead of 3 to 9,
+    // and j takes 2 bits instead of 1
+    LengthLimitReport report = skewed.limitReport(4);
+    t.checkExpect(report.unlimitedLength, 9);
+    t.checkExpect(report.unlimitedBits, 2035L);
+    t.checkExpect(report.limitedBits, 2556L);
+    t.checkExpect(report.extraBits(), 521L);
+    t.checkInexact(report.cost(), 521.0 / 2035, 0.0001);
+    t.checkExpect(skewed.limitReport(9).extraBits(), 0L);
+
+    // a uniform alphabet of 4 needs 2 bits, so 1 is impossible
+    init();
+    t.checkExpect(h.limitReport(2).cost(), 0.0);
+    t.checkException(new IllegalArgumentException("Cannot give 4 letters codes of at most "
+        + "1 bits"), h, "limitedCode", 1);
+    t.checkException(new IllegalArgumentException("Code lengths must be from 1 to 62"), 
+        h, "limitedCode", 63);
+
+    // repeated letters are caught before any lengths are worked out
+    ArrayList<String> twiceB = new ArrayList<String>(Arrays.asList("b", "e", "b"));
+    ArrayList<Integer> twiceWeights = new ArrayList<Integer>(Arrays.asList(1, 2, 3));
+    t.checkException(new IllegalArgumentException(
+        "Cannot make a canonical code when b is in the alphabet twice"),
+        new Huffman(twiceB, twiceWeights), "limitedCode", 4);
+  }
+
+  void testSymbolTable(Tester t) {
+    init();
+    t.checkExpect(h.symbols.idOf("b"), 0);
+    t.checkExpect(h.symbols.idOf("r"), 3);
+    t.checkExpect(h.symbols.idOf((int) 't'), 2);
+    t.checkExpect(h.symbols.idOf((int) 'u'), -1);
+    t.checkExpect(h.symbols.idOf("bb"), -1);
+    t.checkExpect(h.symbols.letterOf(1), "e");
+
+    // letters outside the BMP, words, and a lone high surrogate
+    ArrayList<String> letters = new ArrayList<String>();
+    letters.add("a");
+    letters.add("\ud83d\ude00"); // a smiley face, which is two chars
+    letters.add("\u00e9");
+    letters.add("the");
+    letters.add("\ud83d");
+    ArrayList<Integer> weights = new ArrayList<Integer>();
+    weights.add(5);
+    weights.add(3);
+    weights.add(2);
+    weights.add(2);
+    weights.add(1);
+    Huffman unicode = new Huffman(letters, weights);
+    t.checkExpect(unicode.symbols.idOf(0x1F600), 1);
+    t.checkExpect(unicode.symbols.idOf(0x1F601), -1);
+    t.checkExpect(unicode.symbols.idOf("the"), 3);
+    // the smiley is kept in the map, so the array only reaches as far as the lone
+    // surrogate, not the smiley's code point
+    t.checkExpect(unicode.symbols.idsBySupplementary.get(0x1F600), 1);
+    t.checkExpect(unicode.symbols.idsByCodePoint.length, 0xD83D + 1);
+    t.checkExpect(h.symbols.idsByCodePoint.length, 128);
+
+    String message = "a\ud83d\ude00\u00e9a\ud83d";
+    BitBuffer encoded = unicode.encodeBits(message);
+    t.checkExpect(encoded.size(), unicode.codeOf("a").size() * 2 
+        + unicode.codeOf("\ud83d\ude00").size() + unicode.codeOf("\u00e9").size() 
+        + unicode.codeOf("\ud83d").size());
+    t.checkExpect(unicode.decode(encoded), message);
+
+    // whole words can be encoded by id
+    BitBuffer words = unicode.encodeIds(new int[] {3, 0, 3});
+    t.checkExpect(unicode.decode(words), "theathe");
+    t.checkException(new IllegalArgumentException("Tried to encode id 7 but that is "
+        + "not part of the language."), unicode, "encodeIds", new int[] {7});
+
+    // a pair whose halves are separate letters, but not a letter together
+    ArrayList<String> halves = new ArrayList<String>();
+    halves.add("\ud83d");
+    halves.add("\ude00");
+    ArrayList<Integer> even = new ArrayList<Integer>();
+    even.add(1);
+    even.add(1);
+    Huffman split = new Huffman(halves, even);
+    t.checkExpect(split.encodeBits("\ud83d\ude00").size(), 2);
+    t.checkExpect(split.decode(split.encodeBits("\ud83d\ude00")), "\ud83d\ude00");
+
+    t.checkException(new IllegalArgumentException("Tried to encode \ud83c\udf00 but that is "
+        + "not part of the language."), unicode, "encodeBits", "a\ud83c\udf00");
+  }
+
+  void testCopies(Tester t) {
+    init();
+    // changing the lists a Huffman was built from doesn't change it
+    better.set(0, "u");
+    betterNums.set(0, 100);
+    t.checkExpect(h.alphabet.get(0), "b");
+    t.checkExpect(h.frequencies.get(0), 1);
+    t.checkExpect(h.encode("better"), result);
+    t.checkException(new IllegalArgumentException("Tried to encode u but that is "
+        + "not part of the language."), h, "encode", "u");
+
+    // neither does changing a code it handed out
+    h.codeOf("b").add(true);
+    t.checkExpect(h.codeOf("b").size(), 2);
+    t.checkExpect(h.encode("better"), result);
+
+    // or the lengths a canonical code was made from
+    int[] lengths = new int[] {2, 2, 2, 2};
+    CanonicalCode code = new CanonicalCode(h.alphabet, lengths);
+    lengths[0] = 7;
+    t.checkExpect(code.lengths, new int[] {2, 2, 2, 2});
+  }
+
+  void testConcurrentUse(Tester t) throws InterruptedException, ExecutionException {
+    ArrayList<String> letters = new ArrayList<String>();
+    ArrayList<Integer> weights = new ArrayList<Integer>();
+    for (int i = 0; i < 26; i++) {
+      letters.add("" + (char) ('a' + i));
+      weights.add(1 + i * i);
+    }
+    Huffman shared = new Huffman(letters, weights);
+    DecodeTable table = shared.decodeTable(6);
+
+    // every task encodes and decodes its own messages with the same Huffman and table,
+    // and checks them against the bits worked out on one thread beforehand
+    ArrayList<String> messages = new ArrayList<String>();
+    ArrayList<BitBuffer> expected = new ArrayList<BitBuffer>();
+    Random random = new Random(42);
+    for (int i = 0; i < 32; i++) {
+      StringBuilder message = new StringBuilder();
+      for (int j = 0; j < 2000; j++) {
+        message.append((char) ('a' + random.nextInt(26)));
+      }
+      messages.add(message.toString());
+      expected.add(shared.encodeBits(message.toString()));
+    }
+
+    ExecutorService threads = Executors.newFixedThreadPool(16);
+    ArrayList<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+    for (int i = 0; i < 256; i++) {
+      int which = i % messages.size();
+      results.add(threads.submit(() -> {
+        String message = messages.get(which);
+        BitBuffer bits = shared.encodeBits(message);
+        StringBuilder decoded = new StringBuilder();
+        shared.decodeInto(bits, decoded);
+        return bits.toBooleans().equals(expected.get(which).toBooleans())
+            && decoded.toString().equals(message)
+            && table.decode(bits).equals(message)
+            && shared.codeOf("z").toBooleans().equals(shared.codesById[25].toBooleans());
+      }));
+    }
+    boolean allOk = true;
+    for (Future<Boolean> result : results) {
+      allOk = allOk && result.get();
+    }
+    threads.shutdown();
+    threads.awaitTermination(10, TimeUnit.SECONDS);
+    t.checkExpect(allOk, true);
+  }
+
   void testBetterEncodeError(Tester t) {
     init();
     t.checkException(new IllegalArgumentException("Tried to encode u but that is "
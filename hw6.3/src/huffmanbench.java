@@ -0,0 +1,259 @@
+import tester.*;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.function.Supplier;
+
+// represents the result of measuring one operation
+class Measurement {
+  String name;
+  long runs;
+  double nanosPerRun;
+  double bytesPerRun;
+
+  Measurement(String name, long runs, double nanosPerRun, double bytesPerRun) {
+    this.name = name;
+    this.runs = runs;
+    this.nanosPerRun = nanosPerRun;
+    this.bytesPerRun = bytesPerRun;
+  }
+
+  // returns this measurement as one line of a table
+  public String toString() {
+    return String.format("%-52s %10d runs %14.1f ns/op %14.1f B/op",
+        this.name, this.runs, this.nanosPerRun, this.bytesPerRun);
+  }
+}
+
+// measures how long an operation takes and how many bytes it allocates
+// the operation is run for warmupMillis first so the JIT has compiled it, then as many
+// times as fit in measureMillis; allocation is read from the thread's allocation counter
+class Benchmark {
+  long warmupMillis;
+  long measureMillis;
+  // every result is folded into this so the JIT can't skip the work
+  long sink;
+
+  Benchmark(long warmupMillis, long measureMillis) {
+    this.warmupMillis = warmupMillis;
+    this.measureMillis = measureMillis;
+    this.sink = 0;
+  }
+
+  // runs the operation and returns how long it took and how much it allocated per run
+  Measurement measure(String name, Supplier<Object> operation) {
+    this.runFor(this.warmupMillis, operation);
+
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long thread = Thread.currentThread().getId();
+    long bytesBefore = threads.getThreadAllocatedBytes(thread);
+    long start = System.nanoTime();
+    long runs = this.runFor(this.measureMillis, operation);
+    long nanos = System.nanoTime() - start;
+    long bytes = threads.getThreadAllocatedBytes(thread) - bytesBefore;
+    return new Measurement(name, runs, (double) nanos / runs, (double) bytes / runs);
+  }
+
+  // runs the operation at least once and until the given time has passed,
+  // returning how many times it ran
+  long runFor(long millis, Supplier<Object> operation) {
+    long end = System.nanoTime() + millis * 1000000;
+    long runs = 0;
+    do {
+      this.sink = this.sink + operation.get().hashCode();
+      runs = runs + 1;
+    } while (System.nanoTime() < end);
+    return runs;
+  }
+}
+
+// represents an alphabet, its frequencies and a message made from them, to measure with
+// the letters are the first size characters, and the message picks letters at random in
+// proportion to their frequencies
+class HuffmanWorkload {
+  String name;
+  ArrayList<String> alphabet;
+  ArrayList<Integer> frequencies;
+  String message;
+
+  HuffmanWorkload(int size, boolean skewed, int messageLength) {
+    if (size < 2 || size > Character.MAX_VALUE + 1) {
+      throw new IllegalArgumentException("Alphabet size must be from 2 to 65536");
+    }
+    this.name = size + (skewed ? " skewed" : " uniform") + " x " + messageLength;
+    this.alphabet = new ArrayList<String>(size);
+    this.frequencies = new ArrayList<Integer>(size);
+    long[] runningTotals = new long[size];
+    long total = 0;
+    for (int i = 0; i < size; i++) {
+      // skewed frequencies follow Zipf's law, so the first letter is by far the most common
+      int frequency = 1;
+      if (skewed) {
+        frequency = Math.max(1, 1000000 / (i + 1));
+      }
+      this.alphabet.add(String.valueOf((char) i));
+      this.frequencies.add(frequency);
+      total = total + frequency;
+      runningTotals[i] = total;
+    }
+
+    Random random = new Random(size * 31L + messageLength);
+    StringBuilder builder = new StringBuilder(messageLength);
+    for (int i = 0; i < messageLength; i++) {
+      long pick = (long) (random.nextDouble() * total);
+      int low = 0;
+      int high = size - 1;
+      while (low < high) {
+        int middle = (low + high) >>> 1;
+        if (runningTotals[middle] <= pick) {
+          low = middle + 1;
+        }
+        else {
+          high = middle;
+        }
+      }
+      builder.append((char) low);
+    }
+    this.message = builder.toString();
+  }
+
+  // returns a fresh list of leaves for the alphabet, since sorting uses the list up
+  ArrayList<ATree> leaves() {
+    ArrayList<ATree> leaves = new ArrayList<ATree>(this.alphabet.size());
+    for (int i = 0; i < this.alphabet.size(); i++) {
+      leaves.add(new Leaf(this.alphabet.get(i), this.frequencies.get(i), i));
+    }
+    return leaves;
+  }
+}
+
+// measures building, encoding and decoding with Huffman for alphabets of 4 to 65536 letters,
+// short and long messages, and uniform and skewed frequencies
+// run it with the tester on its own, e.g. tester.Main BenchmarksHuffman, and
+// each measurement prints its time and bytes allocated per operation
+class BenchmarksHuffman {
+  int[] sizes = new int[] {4, 256, 4096, 65536};
+  int[] lengths = new int[] {1000, 100000};
+  Benchmark benchmark = new Benchmark(500, 1000);
+
+  // returns every workload with a message of the given length
+  ArrayList<HuffmanWorkload> workloads(int messageLength) {
+    ArrayList<HuffmanWorkload> workloads = new ArrayList<HuffmanWorkload>();
+    for (int size : this.sizes) {
+      workloads.add(new HuffmanWorkload(size, false, messageLength));
+      workloads.add(new HuffmanWorkload(size, true, messageLength));
+    }
+    return workloads;
+  }
+
+  // EFFECT: prints the measurement
+  void report(Measurement measurement) {
+    System.out.println(measurement);
+  }
+
+  void testConstruction(Tester t) {
+    for (HuffmanWorkload workload : this.workloads(0)) {
+      this.report(this.benchmark.measure("new Huffman " + workload.name,
+          () -> new Huffman(workload.alphabet, workload.frequencies)));
+      this.report(this.benchmark.measure("sort " + workload.name,
+          () -> new ArrayListUtils().sort(workload.leaves())));
+      // 15 bit codes only have room for 32768 letters
+      if (workload.alphabet.size() <= 1 << 15) {
+        this.report(this.benchmark.measure("limitedCode(15) " + workload.name,
+            () -> new ArrayListUtils().limitedLengths(workload.frequencies, 15)));
+        System.out.println("  " + new Huffman(workload.alphabet, workload.frequencies)
+            .limitReport(15));
+      }
+      // scanning is O(n^2), so it is only measured where it finishes in reasonable time
+      if (workload.alphabet.size() <= 4096) {
+        this.report(this.benchmark.measure("sortByScanning " + workload.name,
+            () -> new ArrayListUtils().sortByScanning(workload.leaves())));
+      }
+    }
+  }
+
+  void testEncode(Tester t) {
+    for (int length : this.lengths) {
+      for (HuffmanWorkload workload : this.workloads(length)) {
+        Huffman huffman = new Huffman(workload.alphabet, workload.frequencies);
+        this.report(this.benchmark.measure("encodeBits " + workload.name,
+            () -> huffman.encodeBits(workload.message)));
+        this.report(this.benchmark.measure("encode " + workload.name,
+            () -> huffman.encode(workload.message)));
+      }
+    }
+  }
+
+  void testDecode(Tester t) {
+    for (int length : this.lengths) {
+      for (HuffmanWorkload workload : this.workloads(length)) {
+        Huffman huffman = new Huffman(workload.alphabet, workload.frequencies);
+        BitBuffer bits = huffman.encodeBits(workload.message);
+        ArrayList<Boolean> booleans = bits.toBooleans();
+        DecodeTable table = huffman.decodeTable(8);
+        StringBuilder out = new StringBuilder(workload.message.length());
+        this.report(this.benchmark.measure("decode(BitBuffer) " + workload.name,
+            () -> huffman.decode(bits)));
+        this.report(this.benchmark.measure("decode(ArrayList) " + workload.name,
+            () -> huffman.decode(booleans)));
+        this.report(this.benchmark.measure("decodeInto reused " + workload.name,
+            () -> {
+              out.setLength(0);
+              huffman.decodeInto(bits, out);
+              return out.length();
+            }));
+        this.report(this.benchmark.measure("decodeIntoByWalking reused " + workload.name,
+            () -> {
+              out.setLength(0);
+              huffman.decodeIntoByWalking(bits, 0, bits.size(), out);
+              return out.length();
+            }));
+        this.report(this.benchmark.measure("DecodeTable(8) " + workload.name,
+            () -> table.decode(bits)));
+      }
+    }
+  }
+}
+
+class ExamplesHuffmanBench {
+  void testWorkload(Tester t) {
+    HuffmanWorkload uniform = new HuffmanWorkload(4, false, 1000);
+    t.checkExpect(uniform.alphabet.size(), 4);
+    t.checkExpect(uniform.frequencies.get(3), 1);
+    t.checkExpect(uniform.message.length(), 1000);
+    t.checkExpect(uniform.name, "4 uniform x 1000");
+
+    HuffmanWorkload skewed = new HuffmanWorkload(256, true, 5000);
+    t.checkExpect(skewed.frequencies.get(0), 1000000);
+    t.checkExpect(skewed.frequencies.get(9), 100000);
+    // the most common letter is the first one
+    int firsts = 0;
+    for (int i = 0; i < skewed.message.length(); i++) {
+      if (skewed.message.charAt(i) == 0) {
+        firsts = firsts + 1;
+      }
+    }
+    t.checkExpect(firsts > 5000 / 10, true);
+
+    // the same workload always has the same message
+    t.checkExpect(new HuffmanWorkload(256, true, 5000).message, skewed.message);
+
+    Huffman huffman = new Huffman(skewed.alphabet, skewed.frequencies);
+    t.checkExpect(huffman.decode(huffman.encodeBits(skewed.message)), skewed.message);
+    t.checkExpect(new ArrayListUtils().sort(skewed.leaves()),
+        new ArrayListUtils().sortByScanning(skewed.leaves()));
+
+    t.checkConstructorExceptionType(IllegalArgumentException.class, "HuffmanWorkload",
+        1, false, 10);
+  }
+
+  void testBenchmark(Tester t) {
+    Benchmark quick = new Benchmark(0, 1);
+    Measurement measurement = quick.measure("new array", () -> new long[1000]);
+    t.checkExpect(measurement.runs >= 1, true);
+    // a long[1000] is at least 8000 bytes
+    t.checkExpect(measurement.bytesPerRun >= 8000, true);
+    t.checkExpect(measurement.nanosPerRun > 0, true);
+  }
+}
@@ -0,0 +1,273 @@
+import tester.*;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// represents a message that was encoded in blocks of about blockSize characters
+// block i is the bits from offsets[i] to offsets[i + 1], so every block
+// can be decoded without decoding the ones before it
+class BlockEncoding {
+  BitBuffer bits;
+  int[] offsets;
+  int blockSize;
+
+  BlockEncoding(BitBuffer bits, int[] offsets, int blockSize) {
+    this.bits = bits;
+    this.offsets = offsets;
+    this.blockSize = blockSize;
+  }
+
+  // returns the number of blocks
+  int blockCount() {
+    return this.offsets.length - 1;
+  }
+}
+
+// encodes and decodes messages in blocks, with the blocks spread over a ForkJoinPool
+// the Huffman's tree and code table are only read, so every block shares them
+class BlockCodec {
+  Huffman huffman;
+  int blockSize;
+  ForkJoinPool pool;
+
+  BlockCodec(Huffman huffman, int blockSize) {
+    this(huffman, blockSize, ForkJoinPool.commonPool());
+  }
+
+  BlockCodec(Huffman huffman, int blockSize, ForkJoinPool pool) {
+    if (blockSize < 1) {
+      throw new IllegalArgumentException("Block size must be at least 1");
+    }
+    this.huffman = huffman;
+    this.blockSize = blockSize;
+    this.pool = pool;
+  }
+
+  // encodes the message one block at a time, in parallel, and joins the blocks
+  // together with an index of where each one starts
+  BlockEncoding encode(String message) {
+    int blockCount = (message.length() + this.blockSize - 1) / this.blockSize;
+    BitBuffer[] blocks = new BitBuffer[blockCount];
+    if (blockCount > 0) {
+      this.pool.invoke(new EncodeBlocks(this, message, blocks, 0, blockCount));
+    }
+
+    int total = 0;
+    for (BitBuffer block : blocks) {
+      total = total + block.size();
+    }
+    BitBuffer bits = new BitBuffer();
+    bits.ensureCapacity(total);
+    int[] offsets = new int[blockCount + 1];
+    for (int i = 0; i < blockCount; i++) {
+      offsets[i] = bits.size();
+      bits.append(blocks[i]);
+    }
+    offsets[blockCount] = bits.size();
+    return new BlockEncoding(bits, offsets, this.blockSize);
+  }
+
+  // returns the index of the message where the given block starts
+  // that is block * blockSize, moved one char later if it would split a surrogate pair
+  int blockStart(String message, int block) {
+    int start = (int) Math.min(message.length(), (long) block * this.blockSize);
+    if (start > 0 && start < message.length()
+        && Character.isHighSurrogate(message.charAt(start - 1))
+        && Character.isLowSurrogate(message.charAt(start))) {
+      start = start + 1;
+    }
+    return start;
+  }
+
+  // decodes every block of the encoding, in parallel, back into the message
+  String decode(BlockEncoding encoded) {
+    return this.decode(encoded, 0, encoded.blockCount());
+  }
+
+  // decodes the blocks from first up to but not including last, in parallel
+  String decode(BlockEncoding encoded, int first, int last) {
+    if (first < 0 || last > encoded.blockCount() || first > last) {
+      throw new IndexOutOfBoundsException("No blocks from " + first + " to " + last);
+    }
+    String[] blocks = new String[last - first];
+    if (last > first) {
+      this.pool.invoke(new DecodeBlocks(this, encoded, blocks, first, first, last));
+    }
+
+    StringBuilder decoded = new StringBuilder(
+        (int) Math.min(Integer.MAX_VALUE - 8, (long) (last - first) * encoded.blockSize));
+    for (String block : blocks) {
+      decoded.append(block);
+    }
+    return decoded.toString();
+  }
+}
+
+// encodes the blocks from start to end of a message, splitting the work in half
+// until there is only one block left
+class EncodeBlocks extends RecursiveAction {
+  private static final long serialVersionUID = 1L;
+
+  BlockCodec codec;
+  String message;
+  BitBuffer[] blocks;
+  int start;
+  int end;
+
+  EncodeBlocks(BlockCodec codec, String message, BitBuffer[] blocks, int start, int end) {
+    this.codec = codec;
+    this.message = message;
+    this.blocks = blocks;
+    this.start = start;
+    this.end = end;
+  }
+
+  // EFFECT: encodes each block into its place in blocks
+  protected void compute() {
+    if (this.end - this.start == 1) {
+      int from = this.codec.blockStart(this.message, this.start);
+      int to = this.codec.blockStart(this.message, this.start + 1);
+      BitBuffer block = new BitBuffer();
+      this.codec.huffman.encodeInto(this.message, from, to, block);
+      this.blocks[this.start] = block;
+    }
+    else {
+      int middle = (this.start + this.end) >>> 1;
+      invokeAll(new EncodeBlocks(this.codec, this.message, this.blocks, this.start, middle),
+          new EncodeBlocks(this.codec, this.message, this.blocks, middle, this.end));
+    }
+  }
+}
+
+// decodes the blocks from start to end of an encoding, splitting the work in half
+// until there is only one block left
+class DecodeBlocks extends RecursiveAction {
+  private static final long serialVersionUID = 1L;
+
+  BlockCodec codec;
+  BlockEncoding encoded;
+  String[] blocks;
+  // the block that goes in blocks[0]
+  int first;
+  int start;
+  int end;
+
+  DecodeBlocks(BlockCodec codec, BlockEncoding encoded, String[] blocks,
+      int first, int start, int end) {
+    this.codec = codec;
+    this.encoded = encoded;
+    this.blocks = blocks;
+    this.first = first;
+    this.start = start;
+    this.end = end;
+  }
+
+  // EFFECT: decodes each block into its place in blocks
+  protected void compute() {
+    if (this.end - this.start == 1) {
+      StringBuilder block = new StringBuilder(this.encoded.blockSize);
+      this.codec.huffman.decodeInto(this.encoded.bits, this.encoded.offsets[this.start],
+          this.encoded.offsets[this.start + 1], block);
+      this.blocks[this.start - this.first] = block.toString();
+    }
+    else {
+      int middle = (this.start + this.end) >>> 1;
+      invokeAll(new DecodeBlocks(this.codec, this.encoded, this.blocks,
+          this.first, this.start, middle),
+          new DecodeBlocks(this.codec, this.encoded, this.blocks,
+              this.first, middle, this.end));
+    }
+  }
+}
+
+class ExamplesHuffmanBlocks {
+  Huffman h;
+  BlockCodec fours;
+
+  void init() {
+    ArrayList<String> better = new ArrayList<String>();
+    better.add("b");
+    better.add("e");
+    better.add("t");
+    better.add("r");
+
+    ArrayList<Integer> betterNums = new ArrayList<Integer>();
+    betterNums.add(1);
+    betterNums.add(2);
+    betterNums.add(2);
+    betterNums.add(1);
+
+    h = new Huffman(better, betterNums);
+    fours = new BlockCodec(h, 4);
+  }
+
+  void testEncodeBlocks(Tester t) {
+    init();
+    BlockEncoding encoded = fours.encode("betterbetter");
+    t.checkExpect(encoded.blockCount(), 3);
+    // every letter has a 2 bit code, so every block of 4 letters is 8 bits
+    t.checkExpect(encoded.offsets, new int[] {0, 8, 16, 24});
+    // the blocks joined together are the same bits as encoding all at once
+    t.checkExpect(encoded.bits.toBooleans(), h.encode("betterbetter"));
+
+    BlockEncoding uneven = fours.encode("better");
+    t.checkExpect(uneven.offsets, new int[] {0, 8, 12});
+
+    BlockEncoding empty = fours.encode("");
+    t.checkExpect(empty.blockCount(), 0);
+    t.checkExpect(empty.offsets, new int[] {0});
+
+    t.checkException(new IllegalArgumentException("Tried to encode u but that is "
+        + "not part of the language."), fours, "encode", "butter");
+    t.checkConstructorExceptionType(IllegalArgumentException.class, "BlockCodec", h, 0);
+  }
+
+  void testSurrogateBlocks(Tester t) {
+    ArrayList<String> letters = new ArrayList<String>();
+    letters.add("a");
+    letters.add("\ud83d\ude00");
+    ArrayList<Integer> weights = new ArrayList<Integer>();
+    weights.add(1);
+    weights.add(1);
+    BlockCodec twos = new BlockCodec(new Huffman(letters, weights), 2);
+
+    // the second block would start in the middle of the pair, so it starts after it
+    String message = "a\ud83d\ude00aa";
+    t.checkExpect(twos.blockStart(message, 1), 3);
+    t.checkExpect(twos.blockStart(message, 2), 4);
+    BlockEncoding encoded = twos.encode(message);
+    t.checkExpect(encoded.offsets, new int[] {0, 2, 3, 4});
+    t.checkExpect(twos.decode(encoded), message);
+    t.checkExpect(twos.decode(encoded, 0, 1), "a\ud83d\ude00");
+  }
+
+  void testDecodeBlocks(Tester t) {
+    init();
+    BlockEncoding encoded = fours.encode("betterbetterbe");
+    t.checkExpect(fours.decode(encoded), "betterbetterbe");
+    t.checkExpect(fours.decode(fours.encode("")), "");
+
+    // any range of blocks can be decoded on its own
+    t.checkExpect(fours.decode(encoded, 1, 2), "erbe");
+    t.checkExpect(fours.decode(encoded, 2, 4), "tterbe");
+    t.checkExpect(fours.decode(encoded, 3, 3), "");
+    t.checkException(new IndexOutOfBoundsException("No blocks from 2 to 5"),
+        fours, "decode", encoded, 2, 5);
+  }
+
+  void testManyBlocks(Tester t) {
+    init();
+    StringBuilder message = new StringBuilder();
+    for (int i = 0; i < 100000; i++) {
+      message.append(i % 7 == 0 ? "tree" : "better");
+    }
+    ForkJoinPool pool = new ForkJoinPool(4);
+    BlockCodec codec = new BlockCodec(h, 1000, pool);
+    BlockEncoding encoded = codec.encode(message.toString());
+    t.checkExpect(encoded.blockCount(), (message.length() + 999) / 1000);
+    t.checkExpect(encoded.bits.size(), h.encodeBits(message.toString()).size());
+    t.checkExpect(codec.decode(encoded), message.toString());
+    t.checkExpect(codec.decode(encoded, 5, 6), message.substring(5000, 6000));
+    pool.shutdown();
+  }
+}
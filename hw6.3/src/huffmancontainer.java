@@ -0,0 +1,488 @@
+import tester.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.zip.CRC32C;
+
+// A Huffman container is a file holding a message encoded in blocks, laid out so that any
+// range of blocks can be checked and decoded without reading the rest. Every number is
+// big-endian, and every checksum is a CRC32C.
+//
+//   header   "HUFC", the version (1 byte, currently 1), the number of letters (int),
+//            each letter (as DataOutputStream.writeUTF writes it), each letter's
+//            canonical code length (1 byte each), the block size (int), and the
+//            checksum of everything in the header before it (int)
+//   blocks   the bits of each block packed 8 to a byte, most significant bit first,
+//            with the last byte of a block padded with 0s
+//   index    the number of blocks (int), then for each block where it starts in the
+//            file (long), its number of bits (int), its number of chars (int) and the
+//            checksum of its bytes (int), then the checksum of the index before it (int)
+//   trailer  where the index starts in the file (long), then "HUFC" again
+//
+// The model in the header is a canonical code (see CanonicalCode), so the letters and
+// their lengths are all a reader needs to rebuild the Huffman that wrote the blocks.
+
+// writes messages as Huffman containers, encoding their blocks in parallel with a BlockCodec
+class HuffmanContainer {
+  // the canonical code written in every header, worked out once
+  CanonicalCode code;
+  // the canonical Huffman the blocks are encoded with, which a reader can rebuild
+  Huffman huffman;
+  BlockCodec codec;
+
+  static final byte[] MAGIC = "HUFC".getBytes(StandardCharsets.US_ASCII);
+  static final int VERSION = 1;
+  // the bytes of one block's entry in the index
+  static final int INDEX_ENTRY = 20;
+  // the bytes of the trailer
+  static final int TRAILER = 12;
+
+  HuffmanContainer(Huffman huffman, int blockSize) {
+    this(new BlockCodec(huffman, blockSize));
+  }
+
+  HuffmanContainer(BlockCodec codec) {
+    this.code = codec.huffman.canonicalCode();
+    this.huffman = new Huffman(this.code);
+    this.codec = new BlockCodec(this.huffman, codec.blockSize, codec.pool);
+  }
+
+  // EFFECT: writes the message as a container to the file, replacing what it had
+  void write(String message, Path file) throws IOException {
+    try (OutputStream out = Files.newOutputStream(file)) {
+      this.write(message, out);
+    }
+  }
+
+  // EFFECT: writes the message as a container onto out, which is not closed
+  void write(String message, OutputStream out) throws IOException {
+    BlockEncoding encoded = this.codec.encode(message);
+    DataOutputStream data = new DataOutputStream(out);
+    this.writeHeader(data);
+
+    int blockCount = encoded.blockCount();
+    long[] starts = new long[blockCount];
+    int[] checksums = new int[blockCount];
+    long position = data.size();
+    for (int i = 0; i < blockCount; i++) {
+      byte[] bytes = this.blockBytes(encoded, i);
+      starts[i] = position;
+      checksums[i] = this.checksum(bytes, bytes.length);
+      data.write(bytes);
+      position = position + bytes.length;
+    }
+
+    ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+    DataOutputStream index = new DataOutputStream(indexBytes);
+    index.writeInt(blockCount);
+    for (int i = 0; i < blockCount; i++) {
+      index.writeLong(starts[i]);
+      index.writeInt(encoded.offsets[i + 1] - encoded.offsets[i]);
+      index.writeInt(this.codec.blockStart(message, i + 1)
+          - this.codec.blockStart(message, i));
+      index.writeInt(checksums[i]);
+    }
+    index.writeInt(this.checksum(indexBytes.toByteArray(), indexBytes.size()));
+    data.write(indexBytes.toByteArray());
+    data.writeLong(position);
+    data.write(MAGIC);
+    data.flush();
+  }
+
+  // EFFECT: writes the header, with the alphabet and canonical code lengths, onto data
+  void writeHeader(DataOutputStream data) throws IOException {
+    ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+    DataOutputStream header = new DataOutputStream(headerBytes);
+    header.write(MAGIC);
+    header.writeByte(VERSION);
+    header.writeInt(this.huffman.alphabet.size());
+    for (String letter : this.huffman.alphabet) {
+      header.writeUTF(letter);
+    }
+    header.write(this.code.toHeader());
+    header.writeInt(this.codec.blockSize);
+    header.writeInt(this.checksum(headerBytes.toByteArray(), headerBytes.size()));
+    data.write(headerBytes.toByteArray());
+  }
+
+  // returns the bits of the given block packed into bytes, padded with 0s
+  byte[] blockBytes(BlockEncoding encoded, int block) {
+    int start = encoded.offsets[block];
+    int bits = encoded.offsets[block + 1] - start;
+    byte[] bytes = new byte[(bits + 7) / 8];
+    for (int i = 0; i < bytes.length; i++) {
+      // peek reads past the end of the buffer as 0s, but the next block has to be cut off
+      int count = Math.min(8, bits - i * 8);
+      bytes[i] = (byte) (encoded.bits.peek(start + i * 8, count) << (8 - count));
+    }
+    return bytes;
+  }
+
+  // returns the CRC32C of the first length bytes
+  int checksum(byte[] bytes, int length) {
+    CRC32C crc = new CRC32C();
+    crc.update(bytes, 0, length);
+    return (int) crc.getValue();
+  }
+}
+
+// reads a Huffman container by mapping its file into memory
+// opening it reads the header and index and checks their checksums; blocks are only
+// read, checked and decoded when asked for, so a range near the end of a large file
+// costs no more than one near the start
+// a mapping can be at most 2GB, so bigger containers can't be read
+class HuffmanContainerReader implements Closeable {
+  FileChannel channel;
+  MappedByteBuffer mapped;
+  Huffman huffman;
+  BlockCodec codec;
+  // where each block starts in the file
+  long[] starts;
+  // the number of bits in each block
+  int[] bitCounts;
+  // the number of chars each block decodes to
+  int[] lengths;
+  int[] checksums;
+
+  HuffmanContainerReader(Path file) throws IOException {
+    this.channel = FileChannel.open(file, StandardOpenOption.READ);
+    try {
+      if (this.channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("Huffman container is too big to map");
+      }
+      this.mapped = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, this.channel.size());
+      this.readHeader();
+      this.readIndex();
+    }
+    catch (IOException | RuntimeException e) {
+      this.channel.close();
+      throw e;
+    }
+  }
+
+  // EFFECT: reads the alphabet and code lengths from the header and rebuilds the Huffman
+  void readHeader() throws IOException {
+    ByteBuffer header = this.mapped.duplicate();
+    if (header.remaining() < HuffmanContainer.MAGIC.length + HuffmanContainer.TRAILER
+        || !this.hasMagic(0)) {
+      throw new IOException("Not a Huffman container");
+    }
+    header.position(HuffmanContainer.MAGIC.length);
+    int version = header.get();
+    if (version != HuffmanContainer.VERSION) {
+      throw new IOException("Unsupported Huffman container version " + version);
+    }
+    try {
+      int size = header.getInt();
+      if (size < 2 || size > header.remaining()) {
+        throw new IOException("Bad alphabet size " + size + " in Huffman container");
+      }
+      ArrayList<String> alphabet = new ArrayList<String>(size);
+      for (int i = 0; i < size; i++) {
+        byte[] letter = new byte[header.getShort() & 0xFFFF];
+        header.get(letter);
+        alphabet.add(this.readUTF(letter));
+      }
+      byte[] lengths = new byte[size];
+      header.get(lengths);
+      int blockSize = header.getInt();
+      int expected = this.checksum(0, header.position());
+      if (header.getInt() != expected) {
+        throw new IOException("Huffman container header is corrupt");
+      }
+      this.huffman = new Huffman(new CanonicalCode(alphabet, lengths));
+      this.codec = new BlockCodec(this.huffman, blockSize);
+    }
+    catch (BufferUnderflowException | IllegalArgumentException e) {
+      throw new IOException("Huffman container header is corrupt", e);
+    }
+  }
+
+  // EFFECT: reads where every block is and its checksum from the index at the end
+  void readIndex() throws IOException {
+    int size = this.mapped.limit();
+    if (!this.hasMagic(size - HuffmanContainer.MAGIC.length)) {
+      throw new IOException("Huffman container is missing its trailer");
+    }
+    long indexStart = this.mapped.getLong(size - HuffmanContainer.TRAILER);
+    if (indexStart < 0 || indexStart + 8 > size - HuffmanContainer.TRAILER) {
+      throw new IOException("Huffman container index is corrupt");
+    }
+    int start = (int) indexStart;
+    int blockCount = this.mapped.getInt(start);
+    long indexEnd = start + 4 + (long) blockCount * HuffmanContainer.INDEX_ENTRY;
+    if (blockCount < 0 || indexEnd + 4 != size - HuffmanContainer.TRAILER
+        || this.mapped.getInt((int) indexEnd) != this.checksum(start, (int) indexEnd)) {
+      throw new IOException("Huffman container index is corrupt");
+    }
+
+    this.starts = new long[blockCount];
+    this.bitCounts = new int[blockCount];
+    this.lengths = new int[blockCount];
+    this.checksums = new int[blockCount];
+    for (int i = 0; i < blockCount; i++) {
+      int entry = start + 4 + i * HuffmanContainer.INDEX_ENTRY;
+      this.starts[i] = this.mapped.getLong(entry);
+      this.bitCounts[i] = this.mapped.getInt(entry + 8);
+      this.lengths[i] = this.mapped.getInt(entry + 12);
+      this.checksums[i] = this.mapped.getInt(entry + 16);
+      if (this.bitCounts[i] < 0 || this.starts[i] < 0
+          || this.starts[i] + (this.bitCounts[i] + 7L) / 8 > start) {
+        throw new IOException("Huffman container index is corrupt");
+      }
+    }
+  }
+
+  // returns the number of blocks in the container
+  int blockCount() {
+    return this.starts.length;
+  }
+
+  // returns whether the bytes of the block match their checksum
+  boolean isValid(int block) {
+    if (block < 0 || block >= this.blockCount()) {
+      throw new IndexOutOfBoundsException("No block " + block);
+    }
+    return this.checksum((int) this.starts[block], this.blockEnd(block))
+        == this.checksums[block];
+  }
+
+  // returns the index of the first block that doesn't match its checksum, or -1
+  int firstInvalid() {
+    for (int i = 0; i < this.blockCount(); i++) {
+      if (!this.isValid(i)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  // decodes the whole message
+  String decode() throws IOException {
+    return this.decode(0, this.blockCount());
+  }
+
+  // decodes the blocks from first up to but not including last, checking each one
+  // before it is decoded
+  String decode(int first, int last) throws IOException {
+    if (first < 0 || last > this.blockCount() || first > last) {
+      throw new IndexOutOfBoundsException("No blocks from " + first + " to " + last);
+    }
+    long total = 0;
+    for (int i = first; i < last; i++) {
+      if (!this.isValid(i)) {
+        throw new IOException("Block " + i + " of the Huffman container is corrupt");
+      }
+      total = total + this.bitCounts[i];
+    }
+    if (total > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Too many bits to decode at once");
+    }
+
+    // the blocks' bits are copied out of the file, without the padding between them,
+    // so the BlockCodec can decode them in parallel
+    BitBuffer bits = new BitBuffer();
+    bits.ensureCapacity((int) total);
+    int[] offsets = new int[last - first + 1];
+    for (int i = first; i < last; i++) {
+      offsets[i - first] = bits.size();
+      this.readBits((int) this.starts[i], this.bitCounts[i], bits);
+    }
+    offsets[last - first] = bits.size();
+    return this.codec.decode(new BlockEncoding(bits, offsets, this.codec.blockSize));
+  }
+
+  // returns the number of chars the blocks from first up to but not including last
+  // decode to, without decoding them
+  long lengthOf(int first, int last) {
+    long length = 0;
+    for (int i = first; i < last; i++) {
+      length = length + this.lengths[i];
+    }
+    return length;
+  }
+
+  // EFFECT: appends count bits of the file, starting at the given byte, onto bits
+  void readBits(int start, int count, BitBuffer bits) {
+    int position = start;
+    while (count >= 64) {
+      bits.append(this.mapped.getLong(position), 64);
+      position = position + 8;
+      count = count - 64;
+    }
+    while (count >= 8) {
+      bits.append(this.mapped.get(position) & 0xFF, 8);
+      position = position + 1;
+      count = count - 8;
+    }
+    if (count > 0) {
+      bits.append((this.mapped.get(position) & 0xFF) >>> (8 - count), count);
+    }
+  }
+
+  // returns the byte after the last one of the block
+  int blockEnd(int block) {
+    return (int) (this.starts[block] + (this.bitCounts[block] + 7L) / 8);
+  }
+
+  // returns whether the file has the magic bytes at the given position
+  boolean hasMagic(int position) {
+    if (position < 0) {
+      return false;
+    }
+    for (int i = 0; i < HuffmanContainer.MAGIC.length; i++) {
+      if (this.mapped.get(position + i) != HuffmanContainer.MAGIC[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // returns the CRC32C of the file from start up to but not including end
+  int checksum(int start, int end) {
+    ByteBuffer range = this.mapped.duplicate();
+    range.position(start);
+    range.limit(end);
+    CRC32C crc = new CRC32C();
+    crc.update(range);
+    return (int) crc.getValue();
+  }
+
+  // returns the letter written by DataOutputStream.writeUTF, without its length
+  String readUTF(byte[] bytes) throws IOException {
+    ByteArrayOutputStream withLength = new ByteArrayOutputStream(bytes.length + 2);
+    withLength.write(bytes.length >>> 8);
+    withLength.write(bytes.length);
+    withLength.write(bytes);
+    return new DataInputStream(new ByteArrayInputStream(withLength.toByteArray())).readUTF();
+  }
+
+  // EFFECT: closes the file; the mapping goes away once nothing refers to it
+  public void close() throws IOException {
+    this.channel.close();
+  }
+}
+
+class ExamplesHuffmanContainer {
+  Huffman h;
+
+  void init() {
+    ArrayList<String> better = new ArrayList<String>();
+    better.add("b");
+    better.add("e");
+    better.add("t");
+    better.add("r");
+
+    ArrayList<Integer> betterNums = new ArrayList<Integer>();
+    betterNums.add(1);
+    betterNums.add(2);
+    betterNums.add(2);
+    betterNums.add(1);
+
+    h = new Huffman(better, betterNums);
+  }
+
+  // returns a temporary file holding the message as a container with the given block size
+  Path writeTemp(String message, int blockSize) throws IOException {
+    Path file = Files.createTempFile("huffman-container", ".hufc");
+    new HuffmanContainer(h, blockSize).write(message, file);
+    return file;
+  }
+
+  void testLayout(Tester t) throws IOException {
+    init();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new HuffmanContainer(h, 4).write("better", out);
+    byte[] bytes = out.toByteArray();
+    // magic, version, 4 letters of 3 bytes, 4 lengths, block size and checksum
+    int headerSize = 4 + 1 + 4 + 4 * 3 + 4 + 4 + 4;
+    // "bett" is 8 bits and "er" is 4, padded to a byte
+    int indexSize = 4 + 2 * 20 + 4;
+    t.checkExpect(bytes.length, headerSize + 2 + indexSize + 12);
+    t.checkExpect(new String(bytes, 0, 4, StandardCharsets.US_ASCII), "HUFC");
+    t.checkExpect(bytes[4], (byte) 1);
+    t.checkExpect(new String(bytes, bytes.length - 4, 4, StandardCharsets.US_ASCII), "HUFC");
+    t.checkExpect(ByteBuffer.wrap(bytes).getLong(bytes.length - 12),
+        (long) headerSize + 2);
+    // the canonical codes are b = 00, e = 01, t = 10, r = 11
+    t.checkExpect(bytes[headerSize], (byte) 0x1A);
+    t.checkExpect(bytes[headerSize + 1], (byte) 0x70);
+  }
+
+  void testRoundTrip(Tester t) throws IOException {
+    init();
+    StringBuilder message = new StringBuilder();
+    for (int i = 0; i < 10000; i++) {
+      message.append(i % 3 == 0 ? "tree" : "better");
+    }
+    Path file = writeTemp(message.toString(), 1000);
+    try (HuffmanContainerReader reader = new HuffmanContainerReader(file)) {
+      t.checkExpect(reader.blockCount(), 54);
+      t.checkExpect(reader.decode(), message.toString());
+      // any range decodes without the blocks before it
+      t.checkExpect(reader.decode(7, 9), message.substring(7000, 9000));
+      t.checkExpect(reader.decode(53, 54), message.substring(53000));
+      t.checkExpect(reader.decode(3, 3), "");
+      t.checkExpect(reader.lengthOf(0, 54), (long) message.length());
+      t.checkExpect(reader.firstInvalid(), -1);
+      t.checkException(new IndexOutOfBoundsException("No blocks from 50 to 55"),
+          reader, "decode", 50, 55);
+    }
+    Files.delete(file);
+
+    Path empty = writeTemp("", 16);
+    try (HuffmanContainerReader reader = new HuffmanContainerReader(empty)) {
+      t.checkExpect(reader.blockCount(), 0);
+      t.checkExpect(reader.decode(), "");
+    }
+    Files.delete(empty);
+  }
+
+  void testCorruption(Tester t) throws IOException {
+    init();
+    Path file = writeTemp("betterbetterbetter", 4);
+    byte[] bytes = Files.readAllBytes(file);
+    // flip a bit in the third block, which starts 2 bytes after the 33 byte header
+    bytes[33 + 2] = (byte) (bytes[33 + 2] ^ 1);
+    Files.write(file, bytes);
+    try (HuffmanContainerReader reader = new HuffmanContainerReader(file)) {
+      t.checkExpect(reader.isValid(1), true);
+      t.checkExpect(reader.isValid(2), false);
+      t.checkExpect(reader.firstInvalid(), 2);
+      // the blocks around it can still be read
+      t.checkExpect(reader.decode(0, 2), "betterbe");
+      t.checkExpect(reader.decode(3, 5), "better");
+      t.checkException(new IOException("Block 2 of the Huffman container is corrupt"),
+          reader, "decode", 1, 3);
+    }
+
+    // a broken header or index is caught when the file is opened
+    bytes[33 + 2] = (byte) (bytes[33 + 2] ^ 1);
+    bytes[10] = (byte) (bytes[10] ^ 1);
+    Files.write(file, bytes);
+    t.checkConstructorException(new IOException("Huffman container header is corrupt"),
+        "HuffmanContainerReader", file);
+    bytes[10] = (byte) (bytes[10] ^ 1);
+    bytes[bytes.length - 20] = (byte) (bytes[bytes.length - 20] ^ 1);
+    Files.write(file, bytes);
+    t.checkConstructorException(new IOException("Huffman container index is corrupt"),
+        "HuffmanContainerReader", file);
+    Files.write(file, new byte[] {1, 2, 3});
+    t.checkConstructorException(new IOException("Not a Huffman container"),
+        "HuffmanContainerReader", file);
+    Files.delete(file);
+  }
+}
@@ -0,0 +1,525 @@
+import tester.*;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+// counts how often each letter appears in some data, and builds the Huffman for those counts
+// text is counted by code point, like Huffman encodes it, so a surrogate pair is one
+// letter rather than two halves
+// characters in the Basic Multilingual Plane are counted in a plain array indexed by the
+// character, so counting most text never boxes a number; code points above it and
+// longer symbols are counted in maps
+class HuffmanModelBuilder {
+  long[] charCounts;
+  // the count of each code point above the Basic Multilingual Plane, and of each symbol
+  // longer than one code point, kept in a one long array so it can be added to in place
+  HashMap<Integer, long[]> codePointCounts;
+  HashMap<String, long[]> symbolCounts;
+
+  // the fewest characters the parallel counters give one task, since every task
+  // counts into its own table, which has to be added in at the end
+  static final int MIN_CHUNK = 1 << 16;
+
+  HuffmanModelBuilder() {
+    this.charCounts = new long[Character.MAX_VALUE + 1];
+    this.codePointCounts = new HashMap<Integer, long[]>();
+    this.symbolCounts = new HashMap<String, long[]>();
+  }
+
+  // EFFECT: counts every code point of the text
+  HuffmanModelBuilder addText(CharSequence text) {
+    return this.addText(text, 0, text.length());
+  }
+
+  // EFFECT: counts the code points of the text that start from start to end
+  // a surrogate pair that starts just before end is read to its end, and one that starts
+  // just before start is left to whoever counts the character before it, so counting
+  // ranges that meet counts every code point exactly once
+  HuffmanModelBuilder addText(CharSequence text, int start, int end) {
+    int i = start;
+    if (i > 0 && i < end && Character.isLowSurrogate(text.charAt(i))
+        && Character.isHighSurrogate(text.charAt(i - 1))) {
+      i = i + 1;
+    }
+    while (i < end) {
+      char c = text.charAt(i);
+      if (Character.isHighSurrogate(c) && i + 1 < text.length()
+          && Character.isLowSurrogate(text.charAt(i + 1))) {
+        this.addCodePoint(Character.toCodePoint(c, text.charAt(i + 1)), 1);
+        i = i + 2;
+      }
+      else {
+        this.charCounts[c]++;
+        i = i + 1;
+      }
+    }
+    return this;
+  }
+
+  // EFFECT: counts the given code point the given number of times
+  void addCodePoint(int codePoint, long count) {
+    if (codePoint <= Character.MAX_VALUE) {
+      this.charCounts[codePoint] += count;
+    }
+    else {
+      this.codePointCounts.computeIfAbsent(codePoint, c -> new long[1])[0] += count;
+    }
+  }
+
+  // EFFECT: counts the given symbol once
+  HuffmanModelBuilder addSymbol(String symbol) {
+    return this.addSymbol(symbol, 1);
+  }
+
+  // EFFECT: counts the given symbol the given number of times
+  HuffmanModelBuilder addSymbol(String symbol, long count) {
+    if (symbol.isEmpty()) {
+      throw new IllegalArgumentException("Cannot count an empty symbol");
+    }
+    else if (symbol.codePointCount(0, symbol.length()) == 1) {
+      this.addCodePoint(symbol.codePointAt(0), count);
+    }
+    else {
+      this.symbolCounts.computeIfAbsent(symbol, s -> new long[1])[0] += count;
+    }
+    return this;
+  }
+
+  // EFFECT: counts every code point read from the reader, a buffer at a time
+  HuffmanModelBuilder addReader(Reader reader) throws IOException {
+    char[] buffer = new char[8192];
+    int length = this.fill(reader, buffer, 0, 8192);
+    while (length > 0) {
+      int carried = this.counted(buffer, length, reader);
+      length = this.fill(reader, buffer, carried, 8192);
+    }
+    return this;
+  }
+
+  // EFFECT: counts every code point of the UTF-8 text in the stream
+  // the stream is not closed
+  HuffmanModelBuilder addStream(InputStream in) throws IOException {
+    return this.addReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+  }
+
+  // EFFECT: counts every code point of the UTF-8 text in the file
+  HuffmanModelBuilder addFile(Path file) throws IOException {
+    try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      return this.addReader(reader);
+    }
+  }
+
+  // EFFECT: counts the first length characters of the buffer, except for a high surrogate
+  // at the end that the reader may still have the other half of, which is moved to the
+  // front of the buffer
+  // returns how many characters were moved to the front
+  int counted(char[] buffer, int length, Reader reader) throws IOException {
+    if (length > 1 && Character.isHighSurrogate(buffer[length - 1])) {
+      this.addText(CharBuffer.wrap(buffer, 0, length - 1));
+      buffer[0] = buffer[length - 1];
+      return 1;
+    }
+    this.addText(CharBuffer.wrap(buffer, 0, length));
+    return 0;
+  }
+
+  // EFFECT: reads from the reader into the buffer after the first kept characters until
+  // it holds size characters or the reader runs out
+  // returns how many characters the buffer holds, which is 0 once there is nothing left
+  // apart from a kept character that the reader turned out to have no pair for, which
+  // is then counted on its own
+  int fill(Reader reader, char[] buffer, int kept, int size) throws IOException {
+    int length = kept;
+    int read = 0;
+    while (length < size && read >= 0) {
+      read = reader.read(buffer, length, size - length);
+      if (read > 0) {
+        length = length + read;
+      }
+    }
+    if (length == kept && kept > 0) {
+      this.charCounts[buffer[0]]++;
+      return 0;
+    }
+    return length;
+  }
+
+  // returns how many characters the parallel counters give one task for text of the
+  // given length: the chunk size asked for, but at least MIN_CHUNK, and enough that the
+  // pool's threads get about four tasks each, so there are few tables to add up
+  int parallelChunkSize(long length, int chunkSize, ForkJoinPool pool) {
+    if (chunkSize < 1) {
+      throw new IllegalArgumentException("Chunk size must be at least 1");
+    }
+    long perTask = length / (4L * pool.getParallelism()) + 1;
+    return (int) Math.min(Integer.MAX_VALUE - 1,
+        Math.max(perTask, Math.max(chunkSize, MIN_CHUNK)));
+  }
+
+  // EFFECT: counts every code point of the text, splitting it into chunks that are
+  // counted in parallel on the pool (see parallelChunkSize for how big they are)
+  HuffmanModelBuilder addTextParallel(CharSequence text, int chunkSize, ForkJoinPool pool) {
+    int size = this.parallelChunkSize(text.length(), chunkSize, pool);
+    if (text.length() > 0) {
+      this.merge(pool.invoke(new CountChunks(text, size, 0, text.length())));
+    }
+    return this;
+  }
+
+  // EFFECT: counts every code point read from the reader, counting each chunk on the
+  // pool while the next one is read
+  // each of the pool's threads gets its own counts and buffer, used for one chunk at a
+  // time and added to this builder once at the end
+  HuffmanModelBuilder addReaderParallel(Reader reader, int chunkSize, ForkJoinPool pool)
+      throws IOException {
+    int size = this.parallelChunkSize(0, chunkSize, pool);
+    int slots = pool.getParallelism();
+    HuffmanModelBuilder[] counts = new HuffmanModelBuilder[slots];
+    char[][] buffers = new char[slots][];
+    ArrayList<ForkJoinTask<?>> running = new ArrayList<ForkJoinTask<?>>();
+    char carry = 0;
+    int kept = 0;
+    int slot = 0;
+    int length = 1;
+    while (length > 0) {
+      if (counts[slot] == null) {
+        counts[slot] = new HuffmanModelBuilder();
+        buffers[slot] = new char[size];
+        running.add(null);
+      }
+      else {
+        running.get(slot).join();
+      }
+      char[] buffer = buffers[slot];
+      buffer[0] = carry;
+      length = this.fill(reader, buffer, kept, size);
+      kept = 0;
+      if (length > 1 && Character.isHighSurrogate(buffer[length - 1])) {
+        carry = buffer[length - 1];
+        kept = 1;
+        length = length - 1;
+      }
+      HuffmanModelBuilder target = counts[slot];
+      int count = length;
+      running.set(slot, pool.submit(() -> {
+        target.addText(CharBuffer.wrap(buffer, 0, count));
+      }));
+      slot = (slot + 1) % slots;
+    }
+    for (int i = 0; i < running.size(); i++) {
+      running.get(i).join();
+      this.merge(counts[i]);
+    }
+    return this;
+  }
+
+  // EFFECT: counts every code point of the UTF-8 text in the file in parallel,
+  // like addReaderParallel
+  HuffmanModelBuilder addFileParallel(Path file, int chunkSize, ForkJoinPool pool)
+      throws IOException {
+    try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      return this.addReaderParallel(reader, chunkSize, pool);
+    }
+  }
+
+  // EFFECT: adds every count of the other builder to this one
+  HuffmanModelBuilder merge(HuffmanModelBuilder other) {
+    for (int i = 0; i < other.charCounts.length; i++) {
+      this.charCounts[i] += other.charCounts[i];
+    }
+    for (int codePoint : other.codePointCounts.keySet()) {
+      this.addCodePoint(codePoint, other.codePointCounts.get(codePoint)[0]);
+    }
+    for (String symbol : other.symbolCounts.keySet()) {
+      this.addSymbol(symbol, other.symbolCounts.get(symbol)[0]);
+    }
+    return this;
+  }
+
+  // returns the number of times the symbol has been counted
+  long countOf(String symbol) {
+    if (symbol.length() == 1) {
+      return this.charCounts[symbol.charAt(0)];
+    }
+    long[] count = null;
+    if (!symbol.isEmpty() && symbol.codePointCount(0, symbol.length()) == 1) {
+      count = this.codePointCounts.get(symbol.codePointAt(0));
+    }
+    else {
+      count = this.symbolCounts.get(symbol);
+    }
+    if (count == null) {
+      return 0;
+    }
+    return count[0];
+  }
+
+  // returns the Huffman for every symbol counted at least once
+  // single code points come first in code point order, then longer symbols in string order
+  // if the counts add up to more than an int can hold, they are all divided down by the
+  // same amount, keeping every symbol at a count of at least 1
+  Huffman build() {
+    ArrayList<String> alphabet = new ArrayList<String>();
+    ArrayList<Long> counts = new ArrayList<Long>();
+    long total = 0;
+    for (int c = 0; c < this.charCounts.length; c++) {
+      if (this.charCounts[c] > 0) {
+        alphabet.add(String.valueOf((char) c));
+        counts.add(this.charCounts[c]);
+        total = total + this.charCounts[c];
+      }
+    }
+    ArrayList<Integer> codePoints = new ArrayList<Integer>(this.codePointCounts.keySet());
+    codePoints.sort(Integer::compareTo);
+    for (int codePoint : codePoints) {
+      long count = this.codePointCounts.get(codePoint)[0];
+      if (count > 0) {
+        alphabet.add(new String(Character.toChars(codePoint)));
+        counts.add(count);
+        total = total + count;
+      }
+    }
+    ArrayList<String> symbols = new ArrayList<String>(this.symbolCounts.keySet());
+    symbols.sort(String::compareTo);
+    for (String symbol : symbols) {
+      long count = this.symbolCounts.get(symbol)[0];
+      if (count > 0) {
+        alphabet.add(symbol);
+        counts.add(count);
+        total = total + count;
+      }
+    }
+
+    long divisor = 1;
+    if (total > Integer.MAX_VALUE) {
+      divisor = total / (Integer.MAX_VALUE / 2) + 1;
+    }
+    ArrayList<Integer> frequencies = new ArrayList<Integer>(counts.size());
+    for (long count : counts) {
+      frequencies.add((int) Math.max(1, count / divisor));
+    }
+    return new Huffman(alphabet, frequencies);
+  }
+}
+
+// counts the code points from start to end of some text, splitting the work in half
+// until each part is at most one chunk
+// each part is counted into its own builder, and the halves are added together as they
+// join, so there is one table per chunk rather than per character
+class CountChunks extends RecursiveTask<HuffmanModelBuilder> {
+  private static final long serialVersionUID = 1L;
+
+  CharSequence text;
+  int chunkSize;
+  int start;
+  int end;
+
+  CountChunks(CharSequence text, int chunkSize, int start, int end) {
+    this.text = text;
+    this.chunkSize = chunkSize;
+    this.start = start;
+    this.end = end;
+  }
+
+  // returns the counts of the code points from start to end
+  protected HuffmanModelBuilder compute() {
+    if (this.end - this.start <= this.chunkSize) {
+      return new HuffmanModelBuilder().addText(this.text, this.start, this.end);
+    }
+    int middle = (this.start + this.end) >>> 1;
+    CountChunks right = new CountChunks(this.text, this.chunkSize, middle, this.end);
+    right.fork();
+    HuffmanModelBuilder counts = 
+        new CountChunks(this.text, this.chunkSize, this.start, middle).compute();
+    return counts.merge(right.join());
+  }
+}
+
+class ExamplesHuffmanModel {
+  void testCountText(Tester t) {
+    HuffmanModelBuilder builder = new HuffmanModelBuilder().addText("better");
+    t.checkExpect(builder.countOf("b"), 1L);
+    t.checkExpect(builder.countOf("e"), 2L);
+    t.checkExpect(builder.countOf("t"), 2L);
+    t.checkExpect(builder.countOf("u"), 0L);
+
+    Huffman h = builder.build();
+    ArrayList<String> alphabet = new ArrayList<String>();
+    alphabet.add("b");
+    alphabet.add("e");
+    alphabet.add("r");
+    alphabet.add("t");
+    ArrayList<Integer> frequencies = new ArrayList<Integer>();
+    frequencies.add(1);
+    frequencies.add(2);
+    frequencies.add(1);
+    frequencies.add(2);
+    t.checkExpect(h.alphabet, alphabet);
+    t.checkExpect(h.frequencies, frequencies);
+    t.checkExpect(h.decode(h.encode("better")), "better");
+    t.checkExpect(h.encode("better").size(), 12);
+
+    t.checkExceptionType(IllegalArgumentException.class,
+        new HuffmanModelBuilder().addText("aaaa"), "build");
+  }
+
+  void testCountSymbols(Tester t) {
+    HuffmanModelBuilder builder = new HuffmanModelBuilder()
+        .addSymbol("the", 5)
+        .addSymbol("and")
+        .addSymbol("x", 3)
+        .addSymbol("and");
+    t.checkExpect(builder.countOf("the"), 5L);
+    t.checkExpect(builder.countOf("and"), 2L);
+    t.checkExpect(builder.countOf("x"), 3L);
+    t.checkExpect(builder.countOf("or"), 0L);
+
+    Huffman h = builder.build();
+    ArrayList<String> alphabet = new ArrayList<String>();
+    alphabet.add("x");
+    alphabet.add("and");
+    alphabet.add("the");
+    t.checkExpect(h.alphabet, alphabet);
+
+    HuffmanModelBuilder merged = new HuffmanModelBuilder().addText("xy").merge(builder);
+    t.checkExpect(merged.countOf("x"), 4L);
+    t.checkExpect(merged.countOf("the"), 5L);
+
+    t.checkException(new IllegalArgumentException("Cannot count an empty symbol"),
+        builder, "addSymbol", "");
+  }
+
+  void testCountStreams(Tester t) throws IOException {
+    String text = "the quick brown fox jumps over the lazy dog";
+    HuffmanModelBuilder fromText = new HuffmanModelBuilder().addText(text);
+    HuffmanModelBuilder fromStream = new HuffmanModelBuilder().addStream(
+        new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)));
+    t.checkExpect(fromStream.charCounts, fromText.charCounts);
+
+    Path file = Files.createTempFile("huffman-model", ".txt");
+    Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+    HuffmanModelBuilder fromFile = new HuffmanModelBuilder().addFile(file);
+    Files.delete(file);
+    t.checkExpect(fromFile.charCounts, fromText.charCounts);
+
+    Huffman h = fromFile.build();
+    t.checkExpect(h.decode(h.encode(text)), text);
+  }
+
+  void testCountParallel(Tester t) {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 200000; i++) {
+      text.append((char) ('a' + i % 26));
+      text.append(i % 3 == 0 ? " " : "\u00e9");
+    }
+    ForkJoinPool pool = new ForkJoinPool(4);
+    HuffmanModelBuilder parallel = new HuffmanModelBuilder()
+        .addTextParallel(text, 10000, pool);
+    pool.shutdown();
+    HuffmanModelBuilder sequential = new HuffmanModelBuilder().addText(text);
+    t.checkExpect(parallel.charCounts, sequential.charCounts);
+    t.checkExpect(parallel.countOf("\u00e9"), 133333L);
+  }
+
+  void testCountCodePoints(Tester t) throws IOException {
+    String smile = "\ud83d\ude00";
+    String text = "a" + smile + "b" + smile;
+    HuffmanModelBuilder builder = new HuffmanModelBuilder().addText(text);
+    t.checkExpect(builder.countOf(smile), 2L);
+    t.checkExpect(builder.countOf("\ud83d"), 0L);
+    t.checkExpect(builder.countOf("a"), 1L);
+
+    // ranges that meet in the middle of a pair still count it once
+    HuffmanModelBuilder halves = new HuffmanModelBuilder()
+        .addText(text, 0, 2)
+        .addText(text, 2, 6);
+    t.checkExpect(halves.charCounts, builder.charCounts);
+    t.checkExpect(halves.countOf(smile), 2L);
+    // a surrogate without its other half is counted on its own
+    t.checkExpect(new HuffmanModelBuilder().addText("x\ud83d").countOf("\ud83d"), 1L);
+
+    Huffman h = builder.build();
+    t.checkExpect(h.alphabet, new ArrayList<String>(Arrays.asList("a", "b", smile)));
+    t.checkExpect(h.encode(text).size(), 6);
+    t.checkExpect(h.decode(h.encode(text)), text);
+
+    // a pair that the reader's buffer cuts in half is still one letter
+    StringBuilder cut = new StringBuilder();
+    for (int i = 0; i < 8191; i++) {
+      cut.append('a');
+    }
+    cut.append(smile);
+    cut.append("\ud83d");
+    HuffmanModelBuilder fromReader = new HuffmanModelBuilder()
+        .addReader(new StringReader(cut.toString()));
+    t.checkExpect(fromReader.countOf(smile), 1L);
+    t.checkExpect(fromReader.countOf("\ud83d"), 1L);
+    t.checkExpect(fromReader.countOf("a"), 8191L);
+  }
+
+  void testCountReaderParallel(Tester t) throws IOException {
+    // the high halves are at odd positions, so chunks of an even size end in the
+    // middle of a pair
+    StringBuilder text = new StringBuilder("a");
+    for (int i = 0; i < 150000; i++) {
+      text.append(i % 5 == 0 ? "\ud83d\ude00" : "\u00e9\ud83d\ude01");
+    }
+    HuffmanModelBuilder sequential = new HuffmanModelBuilder().addText(text);
+    ForkJoinPool pool = new ForkJoinPool(3);
+    HuffmanModelBuilder fromText = new HuffmanModelBuilder().addTextParallel(text, 1, pool);
+    HuffmanModelBuilder fromReader = new HuffmanModelBuilder()
+        .addReaderParallel(new StringReader(text.toString()), 1, pool);
+    Path file = Files.createTempFile("huffman-model", ".txt");
+    Files.write(file, text.toString().getBytes(StandardCharsets.UTF_8));
+    HuffmanModelBuilder fromFile = new HuffmanModelBuilder().addFileParallel(file, 1, pool);
+    Files.delete(file);
+    HuffmanModelBuilder empty = new HuffmanModelBuilder()
+        .addReaderParallel(new StringReader(""), 1, pool);
+    pool.shutdown();
+
+    t.checkExpect(sequential.countOf("\ud83d\ude00"), 30000L);
+    t.checkExpect(sequential.countOf("\ud83d\ude01"), 120000L);
+    t.checkExpect(fromText.charCounts, sequential.charCounts);
+    t.checkExpect(fromText.countOf("\ud83d\ude00"), 30000L);
+    t.checkExpect(fromReader.charCounts, sequential.charCounts);
+    t.checkExpect(fromReader.countOf("\ud83d\ude01"), 120000L);
+    t.checkExpect(fromFile.charCounts, sequential.charCounts);
+    t.checkExpect(fromFile.countOf("\ud83d\ude00"), 30000L);
+    t.checkExpect(empty.charCounts, new HuffmanModelBuilder().charCounts);
+
+    // small chunks are made bigger, so there are never more tables than are worth adding
+    t.checkExpect(sequential.parallelChunkSize(100, 1, pool), HuffmanModelBuilder.MIN_CHUNK);
+    t.checkExpect(sequential.parallelChunkSize(12000000, 1, pool), 1000001);
+    t.checkException(new IllegalArgumentException("Chunk size must be at least 1"),
+        sequential, "parallelChunkSize", 100L, 0, pool);
+  }
+
+  void testScaleCounts(Tester t) {
+    HuffmanModelBuilder builder = new HuffmanModelBuilder()
+        .addSymbol("a", 3000000000L)
+        .addSymbol("b", 1000000000L)
+        .addSymbol("c", 1);
+    Huffman h = builder.build();
+    long total = 0;
+    for (int frequency : h.frequencies) {
+      total = total + frequency;
+    }
+    t.checkExpect(total <= Integer.MAX_VALUE, true);
+    t.checkExpect(h.frequencies.get(2), 1);
+    t.checkExpect(h.frequencies.get(0) > h.frequencies.get(1), true);
+    t.checkExpect(h.encode("a").size(), 1);
+  }
+}
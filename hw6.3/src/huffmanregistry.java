@@ -0,0 +1,263 @@
+import tester.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+// represents the alphabet and frequencies a Huffman is built from, as a key for HuffmanRegistry
+// it uses the lists it is given as they are, so a lookup doesn't copy them, and its hash is
+// worked out once since every comparison needs it
+// a key kept in the registry has to be made with copy, so changing the caller's lists
+// later doesn't change it
+class ModelKey {
+  ArrayList<String> alphabet;
+  ArrayList<Integer> frequencies;
+  int fingerprint;
+
+  ModelKey(ArrayList<String> alphabet, ArrayList<Integer> frequencies) {
+    this.alphabet = alphabet;
+    this.frequencies = frequencies;
+    this.fingerprint = 31 * this.alphabet.hashCode() + this.frequencies.hashCode();
+  }
+
+  // returns a key for the same alphabet and frequencies with its own copies of the lists
+  ModelKey copy() {
+    return new ModelKey(new ArrayList<String>(this.alphabet),
+        new ArrayList<Integer>(this.frequencies));
+  }
+
+  // is this key for the same alphabet and frequencies as the given object?
+  public boolean equals(Object other) {
+    if (!(other instanceof ModelKey)) {
+      return false;
+    }
+    ModelKey that = (ModelKey) other;
+    return this.fingerprint == that.fingerprint
+        && this.alphabet.equals(that.alphabet)
+        && this.frequencies.equals(that.frequencies);
+  }
+
+  // returns the hash of the alphabet and frequencies
+  public int hashCode() {
+    return this.fingerprint;
+  }
+}
+
+// keeps the Huffmans built for the most recently used alphabets, so an alphabet that
+// comes up again doesn't have its tree built again
+// holds at most capacity models, and drops the least recently used one to make room
+// every method can be called from many threads at once; a model is built outside the
+// lock, so a slow build doesn't hold up lookups of other models
+class HuffmanRegistry {
+  int capacity;
+  // the models from least to most recently used
+  LinkedHashMap<ModelKey, Huffman> models;
+  long hits;
+  long misses;
+  long evictions;
+
+  HuffmanRegistry(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Capacity must be at least 1");
+    }
+    this.capacity = capacity;
+    this.models = new LinkedHashMap<ModelKey, Huffman>(16, 0.75f, true);
+    this.hits = 0;
+    this.misses = 0;
+    this.evictions = 0;
+  }
+
+  // returns the Huffman for the alphabet and frequencies, building it only if it
+  // isn't already here
+  // a hit only hashes and compares the caller's lists; they are copied on a miss
+  // EFFECT: counts a hit or a miss, and may drop the least recently used model
+  Huffman get(ArrayList<String> alphabet, ArrayList<Integer> frequencies) {
+    ModelKey lookup = new ModelKey(alphabet, frequencies);
+    synchronized (this) {
+      Huffman found = this.models.get(lookup);
+      if (found != null) {
+        this.hits = this.hits + 1;
+        return found;
+      }
+      this.misses = this.misses + 1;
+    }
+
+    // two threads missing on the same key at once both build it, and the first one
+    // added is the one everyone gets
+    ModelKey key = lookup.copy();
+    Huffman built = new Huffman(key.alphabet, key.frequencies);
+    synchronized (this) {
+      Huffman raced = this.models.putIfAbsent(key, built);
+      if (raced != null) {
+        return raced;
+      }
+      this.evictExtra();
+      return built;
+    }
+  }
+
+  // EFFECT: drops the least recently used models until there are at most capacity
+  void evictExtra() {
+    Iterator<ModelKey> oldest = this.models.keySet().iterator();
+    while (this.models.size() > this.capacity) {
+      oldest.next();
+      oldest.remove();
+      this.evictions = this.evictions + 1;
+    }
+  }
+
+  // is there a model for the alphabet and frequencies? doesn't count as a use
+  synchronized boolean contains(ArrayList<String> alphabet, ArrayList<Integer> frequencies) {
+    return this.models.containsKey(new ModelKey(alphabet, frequencies));
+  }
+
+  // returns the number of models kept
+  synchronized int size() {
+    return this.models.size();
+  }
+
+  // returns the fraction of lookups that found their model, or 0 before any lookup
+  synchronized double hitRate() {
+    long lookups = this.hits + this.misses;
+    if (lookups == 0) {
+      return 0;
+    }
+    return (double) this.hits / lookups;
+  }
+
+  // returns the counts of hits, misses and evictions, and the size, as one line of text
+  public synchronized String toString() {
+    return String.format("%d models, %d hits, %d misses, %d evictions",
+        this.models.size(), this.hits, this.misses, this.evictions);
+  }
+
+  // EFFECT: drops every model, keeping the counts
+  synchronized void clear() {
+    this.models.clear();
+  }
+}
+
+class ExamplesHuffmanRegistry {
+  ArrayList<String> better;
+  ArrayList<Integer> betterNums;
+
+  void init() {
+    better = new ArrayList<String>();
+    better.add("b");
+    better.add("e");
+    better.add("t");
+    better.add("r");
+
+    betterNums = new ArrayList<Integer>();
+    betterNums.add(1);
+    betterNums.add(2);
+    betterNums.add(2);
+    betterNums.add(1);
+  }
+
+  // returns the frequencies first to first + 3, one per letter of better
+  ArrayList<Integer> weights(int first) {
+    ArrayList<Integer> weights = new ArrayList<Integer>();
+    for (int i = 0; i < 4; i++) {
+      weights.add(first + i);
+    }
+    return weights;
+  }
+
+  void testHitsAndMisses(Tester t) {
+    init();
+    HuffmanRegistry registry = new HuffmanRegistry(2);
+    Huffman h = registry.get(better, betterNums);
+    t.checkExpect(h.decode(h.encode("better")), "better");
+    t.checkExpect(registry.misses, 1L);
+    // the same alphabet and frequencies, even in new lists, get the same model back
+    t.checkExpect(registry.get(new ArrayList<String>(better),
+        new ArrayList<Integer>(betterNums)) == h, true);
+    t.checkExpect(registry.hits, 1L);
+    t.checkExpect(registry.hitRate(), 0.5);
+    t.checkExpect(registry.toString(), "1 models, 1 hits, 1 misses, 0 evictions");
+
+    // different frequencies are a different model
+    t.checkExpect(registry.get(better, weights(1)) == h, false);
+    t.checkExpect(registry.size(), 2);
+    t.checkConstructorExceptionType(IllegalArgumentException.class, "HuffmanRegistry", 0);
+  }
+
+  void testEviction(Tester t) {
+    init();
+    HuffmanRegistry registry = new HuffmanRegistry(2);
+    registry.get(better, weights(1));
+    registry.get(better, weights(2));
+    // using the first model makes the second the least recently used
+    registry.get(better, weights(1));
+    registry.get(better, weights(3));
+    t.checkExpect(registry.size(), 2);
+    t.checkExpect(registry.evictions, 1L);
+    t.checkExpect(registry.contains(better, weights(1)), true);
+    t.checkExpect(registry.contains(better, weights(2)), false);
+    t.checkExpect(registry.contains(better, weights(3)), true);
+
+    registry.clear();
+    t.checkExpect(registry.size(), 0);
+    t.checkExpect(registry.misses, 3L);
+  }
+
+  void testCopies(Tester t) {
+    init();
+    HuffmanRegistry registry = new HuffmanRegistry(4);
+    Huffman h = registry.get(better, betterNums);
+    // changing the lists afterwards changes neither the model nor its key
+    better.set(0, "u");
+    betterNums.set(0, 100);
+    t.checkExpect(h.alphabet.get(0), "b");
+    t.checkExpect(h.decode(h.encode("better")), "better");
+    t.checkExpect(registry.contains(better, betterNums), false);
+    t.checkExpect(registry.models.keySet().iterator().next().alphabet == better, false);
+    init();
+    t.checkExpect(registry.get(better, betterNums) == h, true);
+  }
+
+  void testModelKey(Tester t) {
+    init();
+    // a lookup key uses the lists it is given, and a copy doesn't
+    ModelKey key = new ModelKey(better, betterNums);
+    ModelKey copied = key.copy();
+    t.checkExpect(key.alphabet == better, true);
+    t.checkExpect(copied.alphabet == better, false);
+    t.checkExpect(copied.frequencies == betterNums, false);
+    t.checkExpect(copied.equals(key), true);
+    t.checkExpect(copied.hashCode(), key.hashCode());
+    t.checkExpect(new ModelKey(better, weights(1)).equals(key), false);
+  }
+
+  void testConcurrentLookups(Tester t) throws InterruptedException, ExecutionException {
+    init();
+    HuffmanRegistry registry = new HuffmanRegistry(3);
+    ExecutorService threads = Executors.newFixedThreadPool(8);
+    ArrayList<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+    for (int i = 0; i < 64; i++) {
+      int first = 1 + i % 5;
+      results.add(threads.submit(() -> {
+        boolean ok = true;
+        for (int j = 0; j < 200; j++) {
+          Huffman h = registry.get(better, weights(first + j % 2));
+          ok = ok && h.decode(h.encode("betterbetter")).equals("betterbetter");
+        }
+        return ok;
+      }));
+    }
+    boolean allOk = true;
+    for (Future<Boolean> result : results) {
+      allOk = allOk && result.get();
+    }
+    threads.shutdown();
+    threads.awaitTermination(10, TimeUnit.SECONDS);
+    t.checkExpect(allOk, true);
+    t.checkExpect(registry.hits + registry.misses, 64L * 200);
+    t.checkExpect(registry.size() <= 3, true);
+  }
+}
@@ -0,0 +1,485 @@
+import tester.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+// A Huffman stream is the bits of the encoded message packed 8 to a byte, most significant
+// bit first, followed by one last byte that says how many bits of the byte before it are
+// used (1 to 8), or 0 if the message was empty.
+
+// writes the letters written to it as a Huffman stream on an OutputStream
+// only a bounded buffer of encoded bytes is kept before they are written out
+class HuffmanWriter extends Writer {
+  Huffman huffman;
+  OutputStream out;
+  // encoded bytes waiting to be written to out
+  byte[] buffer;
+  int count;
+  // bits that don't make a whole byte yet, as the lowest pendingBits bits
+  long pending;
+  int pendingBits;
+  // whether any encoded byte has been made yet
+  boolean wroteBytes;
+  // a high surrogate waiting to see whether the next char makes a pair with it, or -1
+  int pendingHigh;
+  boolean finished;
+
+  HuffmanWriter(Huffman huffman, OutputStream out) {
+    this(huffman, out, 8192);
+  }
+
+  HuffmanWriter(Huffman huffman, OutputStream out, int bufferSize) {
+    if (bufferSize < 1) {
+      throw new IllegalArgumentException("Buffer size must be at least 1");
+    }
+    this.huffman = huffman;
+    this.out = out;
+    this.buffer = new byte[bufferSize];
+    this.count = 0;
+    this.pending = 0;
+    this.pendingBits = 0;
+    this.wroteBytes = false;
+    this.pendingHigh = -1;
+    this.finished = false;
+  }
+
+  HuffmanWriter(Huffman huffman, WritableByteChannel channel) {
+    this(huffman, Channels.newOutputStream(channel));
+  }
+
+  // EFFECT: encodes the given letters onto the stream
+  public void write(char[] letters, int offset, int length) throws IOException {
+    if (this.finished) {
+      throw new IOException("Cannot write to a finished Huffman stream");
+    }
+    for (int i = offset; i < offset + length; i++) {
+      char letter = letters[i];
+      if (this.pendingHigh >= 0) {
+        // a pair is one letter, like in Huffman.encode, even if it was split between writes
+        char high = (char) this.pendingHigh;
+        this.pendingHigh = -1;
+        if (Character.isLowSurrogate(letter)) {
+          int pair = Character.toCodePoint(high, letter);
+          if (this.huffman.symbols.idOf(pair) >= 0 || this.huffman.symbols.idOf(high) < 0) {
+            this.writeLetter(pair);
+            continue;
+          }
+        }
+        this.writeLetter(high);
+      }
+      if (Character.isHighSurrogate(letter)) {
+        this.pendingHigh = letter;
+      }
+      else {
+        this.writeLetter(letter);
+      }
+    }
+  }
+
+  // EFFECT: encodes the letter that is the given code point onto the stream
+  void writeLetter(int codePoint) throws IOException {
+    int id = this.huffman.symbols.idOf(codePoint);
+    if (id < 0) {
+      throw new IllegalArgumentException("Tried to encode " +
+          new String(Character.toChars(codePoint)) + " but that is not part of the language.");
+    }
+    this.writeCode(this.huffman.codesById[id]);
+  }
+
+  // EFFECT: adds the bits of the code to the pending bits, moving every whole byte
+  // into the buffer
+  void writeCode(BitBuffer code) throws IOException {
+    for (int i = 0; i < code.size(); i = i + 32) {
+      int bits = Math.min(32, code.size() - i);
+      this.pending = (this.pending << bits) | code.peek(i, bits);
+      this.pendingBits = this.pendingBits + bits;
+      while (this.pendingBits >= 8) {
+        this.pendingBits = this.pendingBits - 8;
+        this.writeByte((int) (this.pending >>> this.pendingBits));
+      }
+    }
+  }
+
+  // EFFECT: adds one encoded byte to the buffer, writing the buffer out when it is full
+  void writeByte(int b) throws IOException {
+    this.buffer[this.count] = (byte) b;
+    this.count = this.count + 1;
+    this.wroteBytes = true;
+    if (this.count == this.buffer.length) {
+      this.writeBuffer();
+    }
+  }
+
+  // EFFECT: writes the buffered bytes out
+  void writeBuffer() throws IOException {
+    this.out.write(this.buffer, 0, this.count);
+    this.count = 0;
+  }
+
+  // EFFECT: writes out every whole byte encoded so far
+  // bits that don't make a whole byte wait for the next letters
+  public void flush() throws IOException {
+    this.writeBuffer();
+    this.out.flush();
+  }
+
+  // EFFECT: writes the last partial byte and the end of the stream, without closing
+  // the OutputStream underneath
+  void finish() throws IOException {
+    if (this.finished) {
+      return;
+    }
+    if (this.pendingHigh >= 0) {
+      this.writeLetter(this.pendingHigh);
+      this.pendingHigh = -1;
+    }
+    int lastBits = 0;
+    if (this.pendingBits > 0) {
+      lastBits = this.pendingBits;
+      this.writeByte((int) (this.pending << (8 - this.pendingBits)));
+      this.pendingBits = 0;
+    }
+    else if (this.wroteBytes) {
+      lastBits = 8;
+    }
+    this.writeByte(lastBits);
+    this.flush();
+    this.finished = true;
+  }
+
+  // EFFECT: finishes the stream and closes the OutputStream underneath
+  public void close() throws IOException {
+    this.finish();
+    this.out.close();
+  }
+}
+
+// reads the letters of a Huffman stream from an InputStream
+// only a bounded buffer of encoded bytes and decoded letters is kept at a time
+class HuffmanReader extends Reader {
+  Huffman huffman;
+  InputStream in;
+  // encoded bytes read from in but not decoded yet, from start to end
+  byte[] buffer;
+  int start;
+  int end;
+  boolean endOfInput;
+  // where the decoding is in the tree, kept between bytes
+  ATree current;
+  // decoded letters not read yet, from position to the end
+  StringBuilder decoded;
+  int position;
+  boolean finished;
+
+  HuffmanReader(Huffman huffman, InputStream in) {
+    this(huffman, in, 8192);
+  }
+
+  HuffmanReader(Huffman huffman, InputStream in, int bufferSize) {
+    if (bufferSize < 3) {
+      throw new IllegalArgumentException("Buffer size must be at least 3");
+    }
+    this.huffman = huffman;
+    this.in = in;
+    this.buffer = new byte[bufferSize];
+    this.start = 0;
+    this.end = 0;
+    this.endOfInput = false;
+    this.current = huffman.tree;
+    this.decoded = new StringBuilder();
+    this.position = 0;
+    this.finished = false;
+  }
+
+  HuffmanReader(Huffman huffman, ReadableByteChannel channel) {
+    this(huffman, Channels.newInputStream(channel));
+  }
+
+  // reads up to length decoded letters into the given array
+  // returns how many were read, or -1 at the end of the stream
+  public int read(char[] letters, int offset, int length) throws IOException {
+    if (length == 0) {
+      return 0;
+    }
+    while (this.position == this.decoded.length()) {
+      if (this.finished) {
+        return -1;
+      }
+      this.decoded.setLength(0);
+      this.position = 0;
+      this.decodeMore();
+    }
+    int count = Math.min(length, this.decoded.length() - this.position);
+    this.decoded.getChars(this.position, this.position + count, letters, offset);
+    this.position = this.position + count;
+    return count;
+  }
+
+  // EFFECT: decodes the buffered bytes that are known to be whole bytes of the message,
+  // reading more input when there aren't any, or finishes the message at the end of input
+  // the last two bytes are held back because they can only be read once the end is known
+  void decodeMore() throws IOException {
+    while (this.end - this.start < 3 && !this.endOfInput) {
+      this.fill();
+    }
+    if (this.end - this.start < 3) {
+      this.finish();
+      return;
+    }
+    while (this.end - this.start >= 3) {
+      this.decodeByte(this.buffer[this.start], 8);
+      this.start = this.start + 1;
+    }
+  }
+
+  // EFFECT: moves the unread bytes to the front of the buffer and reads more after them
+  void fill() throws IOException {
+    if (this.start > 0) {
+      System.arraycopy(this.buffer, this.start, this.buffer, 0, this.end - this.start);
+      this.end = this.end - this.start;
+      this.start = 0;
+    }
+    int read = this.in.read(this.buffer, this.end, this.buffer.length - this.end);
+    if (read < 0) {
+      this.endOfInput = true;
+    }
+    else {
+      this.end = this.end + read;
+    }
+  }
+
+  // EFFECT: decodes the last byte of the message using the count in the final byte
+  // and adds "?" if the message stops in the middle of a code, like Huffman.decode
+  void finish() throws IOException {
+    int remaining = this.end - this.start;
+    if (remaining == 0) {
+      throw new IOException("Missing the end of the Huffman stream");
+    }
+    int lastBits = this.buffer[this.end - 1];
+    if (remaining == 1 && lastBits != 0 || remaining == 2 && (lastBits < 1 || lastBits > 8)) {
+      throw new IOException("Bad end of the Huffman stream");
+    }
+    if (remaining == 2) {
+      this.decodeByte(this.buffer[this.start], lastBits);
+    }
+    if (this.current != this.huffman.tree) {
+      this.decoded.append("?");
+    }
+    this.start = this.end;
+    this.finished = true;
+  }
+
+  // EFFECT: decodes the first count bits of the given byte, going on from where the
+  // last byte left off in the tree
+  void decodeByte(byte b, int count) {
+    for (int i = 7; i > 7 - count; i--) {
+      if (((b >>> i) & 1) == 1) {
+        this.current = this.current.getRight();
+      }
+      else {
+        this.current = this.current.getLeft();
+      }
+      if (this.current.isLeaf()) {
+        this.decoded.append(this.current.getLetter());
+        this.current = this.huffman.tree;
+      }
+    }
+  }
+
+  // EFFECT: closes the InputStream underneath
+  public void close() throws IOException {
+    this.in.close();
+  }
+}
+
+// encodes and decodes whole streams of UTF-8 text with a Huffman, a buffer at a time
+class HuffmanStreams {
+  Huffman huffman;
+
+  HuffmanStreams(Huffman huffman) {
+    this.huffman = huffman;
+  }
+
+  // EFFECT: encodes the UTF-8 text from in as a Huffman stream onto out
+  // neither stream is closed
+  void encode(InputStream in, OutputStream out) throws IOException {
+    Reader text = new InputStreamReader(in, StandardCharsets.UTF_8);
+    HuffmanWriter encoder = new HuffmanWriter(this.huffman, out);
+    this.copy(text, encoder);
+    encoder.finish();
+  }
+
+  // EFFECT: decodes the Huffman stream from in as UTF-8 text onto out
+  // neither stream is closed
+  void decode(InputStream in, OutputStream out) throws IOException {
+    Writer text = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+    this.copy(new HuffmanReader(this.huffman, in), text);
+    text.flush();
+  }
+
+  // EFFECT: encodes the UTF-8 text from one channel as a Huffman stream onto the other
+  void encode(ReadableByteChannel in, WritableByteChannel out) throws IOException {
+    this.encode(Channels.newInputStream(in), Channels.newOutputStream(out));
+  }
+
+  // EFFECT: decodes the Huffman stream from one channel as UTF-8 text onto the other
+  void decode(ReadableByteChannel in, WritableByteChannel out) throws IOException {
+    this.decode(Channels.newInputStream(in), Channels.newOutputStream(out));
+  }
+
+  // EFFECT: copies every letter from the reader to the writer, a buffer at a time
+  void copy(Reader from, Writer to) throws IOException {
+    char[] letters = new char[4096];
+    int read = from.read(letters, 0, letters.length);
+    while (read >= 0) {
+      to.write(letters, 0, read);
+      read = from.read(letters, 0, letters.length);
+    }
+  }
+}
+
+class ExamplesHuffmanStreams {
+  Huffman h;
+
+  void init() {
+    ArrayList<String> better = new ArrayList<String>();
+    better.add("b");
+    better.add("e");
+    better.add("t");
+    better.add("r");
+
+    ArrayList<Integer> betterNums = new ArrayList<Integer>();
+    betterNums.add(1);
+    betterNums.add(2);
+    betterNums.add(2);
+    betterNums.add(1);
+
+    h = new Huffman(better, betterNums);
+  }
+
+  // returns the Huffman stream for the message
+  byte[] encodeToBytes(String message) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new HuffmanStreams(h).encode(
+        new ByteArrayInputStream(message.getBytes(StandardCharsets.UTF_8)), out);
+    return out.toByteArray();
+  }
+
+  // returns the message in the Huffman stream
+  String decodeFromBytes(byte[] encoded) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new HuffmanStreams(h).decode(new ByteArrayInputStream(encoded), out);
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  void testWriter(Tester t) throws IOException {
+    init();
+    // "better" is 001011111001, so the last byte uses 4 bits
+    t.checkExpect(encodeToBytes("better"), new byte[] {0x2F, (byte) 0x90, 4});
+    t.checkExpect(encodeToBytes(""), new byte[] {0});
+    t.checkExpect(encodeToBytes("bett"), new byte[] {0x2F, 8});
+
+    // nothing is written until a whole byte is ready, and close finishes the stream
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    HuffmanWriter writer = new HuffmanWriter(h, out, 1);
+    writer.write("bet");
+    t.checkExpect(out.toByteArray(), new byte[] {});
+    writer.write("te");
+    t.checkExpect(out.toByteArray(), new byte[] {0x2F});
+    writer.close();
+    t.checkExpect(out.toByteArray(), new byte[] {0x2F, (byte) 0x80, 2});
+    t.checkExceptionType(IOException.class, writer, "write", new char[] {'b'}, 0, 1);
+
+    t.checkException(new IllegalArgumentException("Tried to encode u but that is "
+        + "not part of the language."), new HuffmanWriter(h, out), "write", 
+        "butter".toCharArray(), 0, 6);
+  }
+
+  void testReader(Tester t) throws IOException {
+    init();
+    t.checkExpect(decodeFromBytes(new byte[] {0x2F, (byte) 0x90, 4}), "better");
+    t.checkExpect(decodeFromBytes(new byte[] {0}), "");
+    // 001 stops in the middle of a code, like decode
+    t.checkExpect(decodeFromBytes(new byte[] {0x20, 3}), "b?");
+
+    // reading a few letters at a time
+    HuffmanReader reader = new HuffmanReader(h,
+        new ByteArrayInputStream(new byte[] {0x2F, (byte) 0x90, 4}), 3);
+    char[] letters = new char[4];
+    t.checkExpect(reader.read(letters, 0, 4), 4);
+    t.checkExpect(new String(letters, 0, 4), "bett");
+    t.checkExpect(reader.read(letters, 0, 4), 2);
+    t.checkExpect(new String(letters, 0, 2), "er");
+    t.checkExpect(reader.read(letters, 0, 4), -1);
+
+    t.checkExceptionType(IOException.class,
+        new HuffmanReader(h, new ByteArrayInputStream(new byte[] {})), "read");
+    t.checkExceptionType(IOException.class,
+        new HuffmanReader(h, new ByteArrayInputStream(new byte[] {0x2F, 9})), "read");
+    t.checkExceptionType(IOException.class,
+        new HuffmanReader(h, new ByteArrayInputStream(new byte[] {3})), "read");
+  }
+
+  void testSurrogatePairs(Tester t) throws IOException {
+    ArrayList<String> letters = new ArrayList<String>();
+    letters.add("a");
+    letters.add("\ud83d\ude00");
+    letters.add("\ud83d");
+    ArrayList<Integer> weights = new ArrayList<Integer>();
+    weights.add(1);
+    weights.add(2);
+    weights.add(1);
+    Huffman faces = new Huffman(letters, weights);
+
+    // the pair is split between two writes, and a lone high surrogate ends the stream
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    HuffmanWriter writer = new HuffmanWriter(faces, out);
+    writer.write("a\ud83d");
+    writer.write("\ude00a\ud83d");
+    writer.close();
+    String message = "a\ud83d\ude00a\ud83d";
+    BitBuffer encoded = faces.encodeBits(message);
+    t.checkExpect(out.size(), (encoded.size() + 7) / 8 + 1);
+
+    HuffmanReader reader = new HuffmanReader(faces, new ByteArrayInputStream(out.toByteArray()));
+    char[] decoded = new char[16];
+    t.checkExpect(new String(decoded, 0, reader.read(decoded, 0, 16)), message);
+  }
+
+  void testRoundTrip(Tester t) throws IOException {
+    init();
+    StringBuilder message = new StringBuilder();
+    for (int i = 0; i < 20000; i++) {
+      message.append(i % 3 == 0 ? "better" : "tree");
+    }
+    byte[] encoded = encodeToBytes(message.toString());
+    t.checkExpect(encoded.length, (h.encodeBits(message.toString()).size() + 7) / 8 + 1);
+    t.checkExpect(decodeFromBytes(encoded), message.toString());
+
+    // through channels
+    ByteArrayOutputStream encodedOut = new ByteArrayOutputStream();
+    new HuffmanStreams(h).encode(
+        Channels.newChannel(new ByteArrayInputStream(
+            message.toString().getBytes(StandardCharsets.UTF_8))),
+        Channels.newChannel(encodedOut));
+    t.checkExpect(encodedOut.toByteArray(), encoded);
+
+    ByteArrayOutputStream decodedOut = new ByteArrayOutputStream();
+    new HuffmanStreams(h).decode(
+        Channels.newChannel(new ByteArrayInputStream(encoded)),
+        Channels.newChannel(decodedOut));
+    t.checkExpect(new String(decodedOut.toByteArray(), StandardCharsets.UTF_8),
+        message.toString());
+  }
+}